@@ -1,4 +1,33 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
 /*
 Functional Requirement-
@@ -13,48 +42,216 @@ enum Operation{
     WithdrawMoney, CheckBalance, PrintPassBook
 }
 
+// amounts are kept in paise so balances never drift the way doubles do
+class Money{
+    static long toMinor(double rupees){
+        return Math.round(rupees*100);
+    }
+
+    static String format(long paise){
+        return (paise<0 ? "-" : "")+Math.abs(paise)/100+"."+String.format("%02d",Math.abs(paise)%100);
+    }
+}
+
 class BankAccount{
+    static final AtomicLongFieldUpdater<BankAccount> BALANCE=AtomicLongFieldUpdater.newUpdater(BankAccount.class,"balance");
+
     String accountNo;
-    double balance;
+    // in paise, only changed by CAS so concurrent debits on a joint account cannot overdraw it
+    volatile long balance;
 
     public BankAccount(String accountNo, double balance){
         this.accountNo=accountNo;
-        this.balance=balance;
+        this.balance=Money.toMinor(balance);
     }
 
+    long getBalance(){
+        return balance;
+    }
+
+    // in rupees, like the constructor
     void addBalance(double balance){
-        this.balance+=balance;
+        credit(Money.toMinor(balance));
     }
 
-    boolean withDrawBalance(double balance){
-        if(this.balance<balance){
-            System.out.println("Low Balance...");
-            return false;
-        }
-        else{
-            System.out.println("Available Balance is : "+this.balance);
-            this.balance-=balance;
+    // paise; balance after the credit
+    long credit(long amount){
+        return BALANCE.addAndGet(this,amount);
+    }
+
+    // paise; balance after the debit, or -1 if the balance is too low. Cash leaves through ATM.dispense,
+    // which pairs this with the cassettes and the ledger
+    long debit(long amount){
+        while(true){
+            long current=balance;
+            if(current<amount) return -1;
+            if(BALANCE.compareAndSet(this,current,current-amount)) return current-amount;
         }
-        return true;
     }
 }
 
 class Card{
+    static final int MAX_PIN_ATTEMPTS=3;
+
     String cardNo;
     String cvv;
     String userName;
-    String pin;
+    // only a salted hash of the PIN is kept
+    byte[] pinHash;
+    byte[] pinSalt;
     Date expiryDate;
+    // attempts since the last correct PIN, each one counted before its PIN is checked
+    AtomicInteger failedAttempts=new AtomicInteger();
 
     public Card(String cardNo, String cvv, String userName, String pin){
         this.cardNo=cardNo;
         this.cvv=cvv;
         this.userName=userName;
-        this.pin=pin;
+        this.pinSalt=PinHasher.newSalt();
+        this.pinHash=PinHasher.hash(pin,pinSalt);
     }
 
+    // full check: derives the key again and compares in constant time
     boolean validatePin(String pin){
-        return this.pin.equals(pin);
+        return MessageDigest.isEqual(pinHash,PinHasher.hash(pin,pinSalt));
+    }
+
+    boolean isBlocked(){
+        return failedAttempts.get()>=MAX_PIN_ATTEMPTS;
+    }
+
+    // claims one of the remaining attempts up front, so concurrent guesses can never run past the limit;
+    // false once the card is blocked. A wrong PIN simply keeps the attempt it claimed
+    boolean reserveAttempt(){
+        while(true){
+            int attempts=failedAttempts.get();
+            if(attempts>=MAX_PIN_ATTEMPTS) return false;
+            if(failedAttempts.compareAndSet(attempts,attempts+1)) return true;
+        }
+    }
+
+    void recordSuccess(){
+        failedAttempts.set(0);
+    }
+}
+
+/*
+ PBKDF2 with HMAC-SHA256 and a random 16 byte salt per card. The JDK ships no memory-hard KDF (scrypt,
+ Argon2), so iterations are what makes guessing expensive; a 4 digit PIN still needs the attempt
+ limit on top, the hash alone cannot protect so small a space.
+ */
+class PinHasher{
+    static final int ITERATIONS=20_000;
+    static final int KEY_BITS=256;
+    static final SecureRandom RANDOM=new SecureRandom();
+
+    static byte[] newSalt(){
+        byte[] salt=new byte[16];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    static byte[] hash(String pin, byte[] salt){
+        PBEKeySpec spec=new PBEKeySpec(pin.toCharArray(),salt,ITERATIONS,KEY_BITS);
+        try{
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e){
+            throw new IllegalStateException(e);
+        }
+        finally{
+            spec.clearPassword();
+        }
+    }
+}
+
+/*
+ Checks PINs for the ATM. A card is blocked after MAX_PIN_ATTEMPTS wrong PINs in a row. Running the
+ KDF on every authentication is too slow at our volume, so after a successful check the card gets a
+ short lived fast verifier: an HMAC of card and PIN under a key that exists only in this process.
+ Until it expires, the same card is checked with one HMAC instead of the KDF. The cache is bounded
+ and least recently used entries go first.
+ */
+class PinVerifier{
+    static class Verified{
+        byte[] verifier;
+        long expiresAt;
+
+        Verified(byte[] verifier, long expiresAt){
+            this.verifier=verifier;
+            this.expiresAt=expiresAt;
+        }
+    }
+
+    int capacity;
+    long ttlMillis;
+    SecretKeySpec key;
+    Map<String,Verified> verified;
+    ThreadLocal<Mac> macs=ThreadLocal.withInitial(this::newMac);
+
+    PinVerifier(int capacity, long ttlMillis){
+        this.capacity=capacity;
+        this.ttlMillis=ttlMillis;
+        this.key=new SecretKeySpec(PinHasher.newSalt(),"HmacSHA256");
+        this.verified=new LinkedHashMap<>(16,0.75f,true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Verified> eldest){
+                return size()>PinVerifier.this.capacity;
+            }
+        };
+    }
+
+    boolean verify(Card card, String pin){
+        if(!card.reserveAttempt()) return false;
+
+        Verified cached;
+        synchronized (verified){
+            cached=verified.get(card.cardNo);
+        }
+        boolean ok;
+        if(cached!=null && cached.expiresAt>System.currentTimeMillis()){
+            ok=MessageDigest.isEqual(cached.verifier,fastVerifier(card,pin));
+        }
+        else{
+            ok=card.validatePin(pin);
+            if(ok){
+                Verified entry=new Verified(fastVerifier(card,pin),System.currentTimeMillis()+ttlMillis);
+                synchronized (verified){
+                    verified.put(card.cardNo,entry);
+                }
+            }
+        }
+
+        if(ok){
+            card.recordSuccess();
+            return true;
+        }
+        if(card.isBlocked()) forget(card);
+        return false;
+    }
+
+    void forget(Card card){
+        synchronized (verified){
+            verified.remove(card.cardNo);
+        }
+    }
+
+    private byte[] fastVerifier(Card card, String pin){
+        Mac mac=macs.get();
+        mac.update(card.cardNo.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte)0);
+        return mac.doFinal(pin.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac(){
+        try{
+            Mac mac=Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        }
+        catch (GeneralSecurityException e){
+            throw new IllegalStateException(e);
+        }
     }
 }
 
@@ -70,33 +267,740 @@ class User{
     }
 }
 
+enum TransactionType{
+    Withdraw, Deposit, AdminTopUp
+}
+
+class LedgerEntry{
+    TransactionType type;
+    String accountNo;
+    long time;
+    long amount;
+    long balanceAfter;
+    int atmId;
+
+    LedgerEntry(TransactionType type, String accountNo, long time, long amount, long balanceAfter, int atmId){
+        this.type=type;
+        this.accountNo=accountNo;
+        this.time=time;
+        this.amount=amount;
+        this.balanceAfter=balanceAfter;
+        this.atmId=atmId;
+    }
+
+    @Override
+    public String toString(){
+        return new Date(time)+"  "+type+"  "+Money.format(amount)+"  balance "+Money.format(balanceAfter)+"  ATM "+atmId;
+    }
+}
+
+/*
+ Append-only transaction history over memory-mapped segments of fixed 48 byte records:
+
+ | type 1 | pad 3 | account 4 | time 8 | amount 8 | balance after 8 | previous record of the account 8 | atm 4 | pad 4 |
+
+ Records are numbered from 1 and each one links to the account's previous record, so a passbook walks
+ back from the account's newest record, reading straight from the mapping. The type byte is written
+ last, a zero type marks the end of the log.
+
+ accounts.dir lists account numbers, one per line, the line number being the account's id in records.
+ accounts.idx is mapped too: the number of records written, then the newest record of each account.
+ Heap use grows with the number of accounts, not with the number of records.
+ */
+class TransactionLedger{
+    static final int RECORD_SIZE=48;
+    static final long RECORDS_PER_SEGMENT=1<<21;
+    static final long SEGMENT_SIZE=RECORD_SIZE*RECORDS_PER_SEGMENT;
+    static final int INDEX_HEADER=8;
+    static final String ATM_CASH_ACCOUNT="#atm-cash";
+
+    FileChannel log;
+    FileChannel indexFile;
+    MappedByteBuffer index;
+    Path directoryFile;
+    List<MappedByteBuffer> segments=new ArrayList<>();
+    List<String> accountNos=new ArrayList<>();
+    Map<String,Integer> accountIds=new ConcurrentHashMap<>();
+    long records;
+    // time of the newest record; the clock may step back, the log's times never do
+    long lastTime;
+    // set for a scratch ledger, whose files go away when it is closed
+    Path temporaryDir;
+
+    // a ledger in a directory of its own, deleted on close; for demos and tests
+    static TransactionLedger temporary(){
+        try{
+            Path dir=Files.createTempDirectory("atm-ledger");
+            TransactionLedger ledger=new TransactionLedger(dir);
+            ledger.temporaryDir=dir;
+            return ledger;
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    TransactionLedger(Path dir){
+        try{
+            Files.createDirectories(dir);
+            this.log=FileChannel.open(dir.resolve("ledger.log"),StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+            this.indexFile=FileChannel.open(dir.resolve("accounts.idx"),StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+            this.directoryFile=dir.resolve("accounts.dir");
+            if(Files.exists(directoryFile)){
+                for(String accountNo:Files.readAllLines(directoryFile,StandardCharsets.UTF_8)){
+                    accountIds.put(accountNo,accountNos.size());
+                    accountNos.add(accountNo);
+                }
+            }
+            for(long base=0;base<log.size();base+=SEGMENT_SIZE){
+                segments.add(log.map(FileChannel.MapMode.READ_WRITE,base,SEGMENT_SIZE));
+            }
+            mapIndex(Math.max(1024,accountNos.size()*2));
+            recover();
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    synchronized void append(TransactionType type, String accountNo, long amount, long balanceAfter, int atmId){
+        int accountId=accountId(accountNo);
+        long record=records+1;
+        ByteBuffer segment=segmentFor(record);
+        int at=offsetOf(record);
+        segment.putInt(at+4,accountId);
+        lastTime=Math.max(lastTime,System.currentTimeMillis());
+        segment.putLong(at+8,lastTime);
+        segment.putLong(at+16,amount);
+        segment.putLong(at+24,balanceAfter);
+        segment.putLong(at+32,lastRecord(accountId));
+        segment.putInt(at+40,atmId);
+        segment.put(at,(byte)(type.ordinal()+1));
+
+        records=record;
+        index.putLong(INDEX_HEADER+8*accountId,record);
+        index.putLong(0,records);
+    }
+
+    // newest first
+    synchronized List<LedgerEntry> lastEntries(String accountNo, int count){
+        List<LedgerEntry> res=new ArrayList<>();
+        Integer accountId=accountIds.get(accountNo);
+        if(accountId==null) return res;
+        for(long record=lastRecord(accountId);record!=0 && res.size()<count;){
+            ByteBuffer segment=segmentFor(record);
+            int at=offsetOf(record);
+            res.add(new LedgerEntry(TransactionType.values()[segment.get(at)-1],accountNo,segment.getLong(at+8),
+                    segment.getLong(at+16),segment.getLong(at+24),segment.getInt(at+40)));
+            record=segment.getLong(at+32);
+        }
+        return res;
+    }
+
+    synchronized long size(){
+        return records;
+    }
+
+    synchronized String accountNo(int accountId){
+        return accountNos.get(accountId);
+    }
+
+    void scan(LedgerVisitor visitor){
+        scan(Long.MIN_VALUE,Long.MAX_VALUE,visitor);
+    }
+
+    /*
+     Streams the records with fromTime <= time < toTime, oldest first, straight from the mapping. Record
+     times never decrease along the log, so the first record of the window is found by binary search and
+     a day's settlement reads that day, not the whole history. Records already written never change, so
+     only the snapshot of the log is taken under the lock and appends carry on while the scan runs.
+     */
+    void scan(long fromTime, long toTime, LedgerVisitor visitor){
+        long upTo;
+        List<MappedByteBuffer> mapped;
+        synchronized (this){
+            upTo=records;
+            mapped=new ArrayList<>(segments);
+        }
+        long low=1;
+        long high=upTo+1;
+        while(low<high){
+            long mid=(low+high)>>>1;
+            if(timeOf(mapped,mid)<fromTime) low=mid+1;
+            else high=mid;
+        }
+        for(long record=low;record<=upTo;record++){
+            ByteBuffer segment=mapped.get((int)((record-1)/RECORDS_PER_SEGMENT));
+            int at=offsetOf(record);
+            long time=segment.getLong(at+8);
+            if(time>=toTime) break;
+            visitor.visit(segment.get(at)-1,segment.getInt(at+4),time,segment.getLong(at+16),
+                    segment.getLong(at+24),segment.getInt(at+40));
+        }
+    }
+
+    private static long timeOf(List<MappedByteBuffer> mapped, long record){
+        return mapped.get((int)((record-1)/RECORDS_PER_SEGMENT)).getLong(offsetOf(record)+8);
+    }
+
+    synchronized void flush(){
+        for(MappedByteBuffer segment:segments){
+            segment.force();
+        }
+        index.force();
+    }
+
+    synchronized void close(){
+        flush();
+        try{
+            log.close();
+            indexFile.close();
+            if(temporaryDir!=null){
+                try(DirectoryStream<Path> files=Files.newDirectoryStream(temporaryDir)){
+                    for(Path file:files){
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(temporaryDir);
+            }
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the index is updated after each record, so at most the records written after it need replaying
+    private void recover(){
+        records=index.getLong(0);
+        while(true){
+            long record=records+1;
+            if((record-1)/RECORDS_PER_SEGMENT>=segments.size()) break;
+            ByteBuffer segment=segmentFor(record);
+            int at=offsetOf(record);
+            if(segment.get(at)==0) break;
+            int accountId=segment.getInt(at+4);
+            index.putLong(INDEX_HEADER+8*accountId,record);
+            records=record;
+        }
+        index.putLong(0,records);
+        if(records>0) lastTime=segmentFor(records).getLong(offsetOf(records)+8);
+    }
+
+    private int accountId(String accountNo){
+        Integer accountId=accountIds.get(accountNo);
+        if(accountId!=null) return accountId;
+        try{
+            Files.write(directoryFile,(accountNo+"\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE,StandardOpenOption.APPEND);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        int id=accountNos.size();
+        accountNos.add(accountNo);
+        accountIds.put(accountNo,id);
+        if(INDEX_HEADER+8L*(id+1)>index.capacity()) mapIndex(accountNos.size()*2);
+        return id;
+    }
+
+    private long lastRecord(int accountId){
+        return index.getLong(INDEX_HEADER+8*accountId);
+    }
+
+    private void mapIndex(int accounts){
+        try{
+            index=indexFile.map(FileChannel.MapMode.READ_WRITE,0,INDEX_HEADER+8L*accounts);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer segmentFor(long record){
+        int segment=(int)((record-1)/RECORDS_PER_SEGMENT);
+        while(segment>=segments.size()){
+            try{
+                segments.add(log.map(FileChannel.MapMode.READ_WRITE,segments.size()*SEGMENT_SIZE,SEGMENT_SIZE));
+            }
+            catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+        return segments.get(segment);
+    }
+
+    private static int offsetOf(long record){
+        return (int)(((record-1)%RECORDS_PER_SEGMENT)*RECORD_SIZE);
+    }
+}
+
+interface LedgerVisitor{
+    void visit(int type, int accountId, long time, long amount, long balanceAfter, int atmId);
+}
+
+/*
+ Per key totals for settlement: open addressing on int keys with the totals in parallel primitive
+ arrays, so aggregating millions of transactions does not box anything. Records must be added in
+ ledger order: the first one fixes the opening balance, the last one the closing balance.
+ */
+class SettlementTotals{
+    int[] keys;
+    boolean[] used;
+    long[] withdrawn;
+    long[] deposited;
+    long[] toppedUp;
+    long[] count;
+    long[] opening;
+    long[] closing;
+    int size;
+
+    SettlementTotals(int expected){
+        allocate(Integer.highestOneBit(Math.max(16,expected*2-1))<<1);
+    }
+
+    void add(int key, int type, long amount, long balanceAfter){
+        if((size+1)*2>keys.length) resize();
+        int slot=slotOf(key);
+        long change=type==TransactionType.Withdraw.ordinal() ? -amount : amount;
+        if(!used[slot]){
+            used[slot]=true;
+            keys[slot]=key;
+            opening[slot]=balanceAfter-change;
+            size++;
+        }
+        if(type==TransactionType.Withdraw.ordinal()) withdrawn[slot]+=amount;
+        else if(type==TransactionType.Deposit.ordinal()) deposited[slot]+=amount;
+        else toppedUp[slot]+=amount;
+        closing[slot]=balanceAfter;
+        count[slot]++;
+    }
+
+    // the balances the ledger recorded agree with the amounts it recorded
+    boolean isBalanced(int slot){
+        return opening[slot]+deposited[slot]-withdrawn[slot]==closing[slot];
+    }
+
+    void addAll(SettlementTotals other){
+        for(int slot=0;slot<other.keys.length;slot++){
+            if(!other.used[slot]) continue;
+            if((size+1)*2>keys.length) resize();
+            int at=slotOf(other.keys[slot]);
+            if(!used[at]){
+                used[at]=true;
+                keys[at]=other.keys[slot];
+                opening[at]=other.opening[slot];
+                size++;
+            }
+            closing[at]=other.closing[slot];
+            withdrawn[at]+=other.withdrawn[slot];
+            deposited[at]+=other.deposited[slot];
+            toppedUp[at]+=other.toppedUp[slot];
+            count[at]+=other.count[slot];
+        }
+    }
+
+    // occupied slots ordered by key, so settlement files come out in a stable order
+    int[] sortedSlots(){
+        long[] packed=new long[size];
+        int n=0;
+        for(int slot=0;slot<keys.length;slot++){
+            if(used[slot]) packed[n++]=((long)keys[slot]<<32)|slot;
+        }
+        Arrays.sort(packed);
+        int[] slots=new int[n];
+        for(int i=0;i<n;i++){
+            slots[i]=(int)packed[i];
+        }
+        return slots;
+    }
+
+    private int slotOf(int key){
+        int hash=key*0x9E3779B9;
+        int slot=(hash^(hash>>>16))&(keys.length-1);
+        while(used[slot] && keys[slot]!=key){
+            slot=(slot+1)&(keys.length-1);
+        }
+        return slot;
+    }
+
+    private void resize(){
+        SettlementTotals old=new SettlementTotals(0);
+        old.keys=keys;
+        old.used=used;
+        old.withdrawn=withdrawn;
+        old.deposited=deposited;
+        old.toppedUp=toppedUp;
+        old.count=count;
+        old.opening=opening;
+        old.closing=closing;
+        allocate(keys.length*2);
+        size=0;
+        addAll(old);
+    }
+
+    private void allocate(int slots){
+        keys=new int[slots];
+        used=new boolean[slots];
+        withdrawn=new long[slots];
+        deposited=new long[slots];
+        toppedUp=new long[slots];
+        count=new long[slots];
+        opening=new long[slots];
+        closing=new long[slots];
+    }
+}
+
+class SettlementReport{
+    long transactions;
+    int accounts;
+    int atms;
+    long withdrawnByAccounts;
+    long dispensedByAtms;
+    long depositedByAccounts;
+    long depositedAtAtms;
+    // accounts whose opening balance plus net movement does not come to the last balance recorded
+    int unbalancedAccounts;
+
+    // checked against the running balances the ledger stored with each record, not against its own sums
+    boolean isReconciled(){
+        return unbalancedAccounts==0;
+    }
+
+    @Override
+    public String toString(){
+        return transactions+" transactions, "+accounts+" accounts, "+atms+" ATMs, withdrawn "+Money.format(withdrawnByAccounts)
+                +", deposited "+Money.format(depositedByAccounts)+", unbalanced accounts "+unbalancedAccounts+", reconciled "+isReconciled();
+    }
+}
+
+/*
+ End of day settlement over the ledger. One sequential pass over the day's records spills them to a
+ file per account partition; then each partition is totalled on its own fork-join task, which only
+ ever holds that partition's accounts in memory. Writes a net settlement file per account partition
+ plus one for the ATMs, and reconciles every account's movements against the balances it recorded.
+ */
+class SettlementEngine{
+    static final int SPILL_RECORD=32;
+    static final int SPILL_BUFFER=1<<16;
+
+    TransactionLedger ledger;
+    int partitions;
+
+    SettlementEngine(TransactionLedger ledger, int partitions){
+        this.ledger=ledger;
+        this.partitions=partitions;
+    }
+
+    SettlementReport settle(long fromTime, long toTime, Path outDir){
+        try{
+            Files.createDirectories(outDir);
+            Path[] spills=spill(fromTime,toTime,outDir);
+            SettlementTotals[] atmTotals=new SettlementTotals[partitions];
+            SettlementReport report=new SettlementReport();
+            ForkJoinPool.commonPool().invoke(new PartitionTask(ledger,spills,atmTotals,outDir,report,0,partitions));
+
+            SettlementTotals atms=new SettlementTotals(16);
+            for(SettlementTotals totals:atmTotals){
+                atms.addAll(totals);
+            }
+            try(java.io.BufferedWriter out=Files.newBufferedWriter(outDir.resolve("atms.csv"),StandardCharsets.UTF_8)){
+                out.write("atmId,dispensed,deposited,toppedUp,netCash,transactions\n");
+                for(int slot:atms.sortedSlots()){
+                    long netCash=atms.toppedUp[slot]+atms.deposited[slot]-atms.withdrawn[slot];
+                    out.write(atms.keys[slot]+","+Money.format(atms.withdrawn[slot])+","+Money.format(atms.deposited[slot])+","
+                            +Money.format(atms.toppedUp[slot])+","+Money.format(netCash)+","+atms.count[slot]+"\n");
+                    report.dispensedByAtms+=atms.withdrawn[slot];
+                    report.depositedAtAtms+=atms.deposited[slot];
+                }
+            }
+            report.atms=atms.size;
+            for(Path spill:spills){
+                Files.deleteIfExists(spill);
+            }
+            return report;
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path[] spill(long fromTime, long toTime, Path outDir) throws IOException{
+        Path[] spills=new Path[partitions];
+        FileChannel[] channels=new FileChannel[partitions];
+        ByteBuffer[] buffers=new ByteBuffer[partitions];
+        for(int p=0;p<partitions;p++){
+            spills[p]=outDir.resolve("partition-"+p+".spill");
+            channels[p]=FileChannel.open(spills[p],StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.WRITE);
+            buffers[p]=ByteBuffer.allocateDirect(SPILL_BUFFER);
+        }
+        try{
+            ledger.scan(fromTime,toTime,(type,accountId,time,amount,balanceAfter,atmId)->{
+                int p=Math.floorMod(accountId,partitions);
+                ByteBuffer buffer=buffers[p];
+                if(buffer.remaining()<SPILL_RECORD) drain(channels[p],buffer);
+                buffer.putInt(accountId).putInt(atmId).putInt(type).putInt(0).putLong(amount).putLong(balanceAfter);
+            });
+            for(int p=0;p<partitions;p++){
+                drain(channels[p],buffers[p]);
+            }
+        }
+        finally{
+            for(FileChannel channel:channels){
+                channel.close();
+            }
+        }
+        return spills;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer){
+        buffer.flip();
+        try{
+            while(buffer.hasRemaining()) channel.write(buffer);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    static class PartitionTask extends RecursiveAction{
+        private static final long serialVersionUID=1L;
+
+        TransactionLedger ledger;
+        Path[] spills;
+        SettlementTotals[] atmTotals;
+        Path outDir;
+        SettlementReport report;
+        int from;
+        int to;
+
+        PartitionTask(TransactionLedger ledger, Path[] spills, SettlementTotals[] atmTotals, Path outDir, SettlementReport report,
+                      int from, int to){
+            this.ledger=ledger;
+            this.spills=spills;
+            this.atmTotals=atmTotals;
+            this.outDir=outDir;
+            this.report=report;
+            this.from=from;
+            this.to=to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to-from>1){
+                int mid=(from+to)>>>1;
+                invokeAll(new PartitionTask(ledger,spills,atmTotals,outDir,report,from,mid),
+                        new PartitionTask(ledger,spills,atmTotals,outDir,report,mid,to));
+                return;
+            }
+            try{
+                settlePartition(from);
+            }
+            catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void settlePartition(int partition) throws IOException{
+            SettlementTotals accounts=new SettlementTotals(1024);
+            SettlementTotals atms=new SettlementTotals(16);
+            long transactions=0;
+            try(FileChannel in=FileChannel.open(spills[partition],StandardOpenOption.READ)){
+                ByteBuffer buffer=ByteBuffer.allocateDirect(SPILL_BUFFER);
+                while(in.read(buffer)>=0){
+                    buffer.flip();
+                    while(buffer.remaining()>=SPILL_RECORD){
+                        int accountId=buffer.getInt();
+                        int atmId=buffer.getInt();
+                        int type=buffer.getInt();
+                        buffer.getInt();
+                        long amount=buffer.getLong();
+                        long balanceAfter=buffer.getLong();
+                        // cassette top-ups move ATM cash only, no customer account is involved
+                        if(type!=TransactionType.AdminTopUp.ordinal()) accounts.add(accountId,type,amount,balanceAfter);
+                        atms.add(atmId,type,amount,balanceAfter);
+                        transactions++;
+                    }
+                    buffer.compact();
+                }
+            }
+            atmTotals[partition]=atms;
+
+            long withdrawn=0;
+            long deposited=0;
+            int unbalanced=0;
+            try(java.io.BufferedWriter out=Files.newBufferedWriter(outDir.resolve("accounts-"+partition+".csv"),StandardCharsets.UTF_8)){
+                out.write("accountNo,opening,withdrawn,deposited,net,closing,transactions\n");
+                for(int slot:accounts.sortedSlots()){
+                    long net=accounts.deposited[slot]-accounts.withdrawn[slot];
+                    out.write(ledger.accountNo(accounts.keys[slot])+","+Money.format(accounts.opening[slot])+","
+                            +Money.format(accounts.withdrawn[slot])+","+Money.format(accounts.deposited[slot])+","+Money.format(net)+","
+                            +Money.format(accounts.closing[slot])+","+accounts.count[slot]+"\n");
+                    withdrawn+=accounts.withdrawn[slot];
+                    deposited+=accounts.deposited[slot];
+                    if(!accounts.isBalanced(slot)) unbalanced++;
+                }
+            }
+            synchronized (report){
+                report.transactions+=transactions;
+                report.accounts+=accounts.size;
+                report.withdrawnByAccounts+=withdrawn;
+                report.depositedByAccounts+=deposited;
+                report.unbalancedAccounts+=unbalanced;
+            }
+        }
+    }
+}
+
+/*
+ Settlement at scale: fills a ledger with synthetic transactions and settles it, printing the time of
+ each phase. Run with `java -cp <classes> SettlementBenchmark [transactions] [accounts] [partitions]`;
+ the default 100M transactions needs about 5GB of disk for the ledger and 2.5GB for the spills.
+ */
+class SettlementBenchmark{
+    public static void main(String[] args) throws IOException{
+        long transactions=args.length>0 ? Long.parseLong(args[0]) : 100_000_000L;
+        int accounts=args.length>1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int partitions=args.length>2 ? Integer.parseInt(args[2]) : 64;
+
+        Path dir=Files.createTempDirectory("settlement");
+        TransactionLedger ledger=new TransactionLedger(dir.resolve("ledger"));
+        String[] accountNos=new String[accounts];
+        long[] balances=new long[accounts];
+        for(int i=0;i<accounts;i++){
+            accountNos[i]="AC"+i;
+        }
+        Random random=new Random(7);
+        long start=System.nanoTime();
+        for(long i=0;i<transactions;i++){
+            int roll=random.nextInt(100);
+            TransactionType type=roll<70 ? TransactionType.Withdraw : roll<99 ? TransactionType.Deposit : TransactionType.AdminTopUp;
+            long amount=100+random.nextInt(1_000_000);
+            if(type==TransactionType.AdminTopUp){
+                ledger.append(type,TransactionLedger.ATM_CASH_ACCOUNT,amount,0,random.nextInt(500));
+                continue;
+            }
+            int account=random.nextInt(accounts);
+            balances[account]+=type==TransactionType.Withdraw ? -amount : amount;
+            ledger.append(type,accountNos[account],amount,balances[account],random.nextInt(500));
+        }
+        double loadSeconds=(System.nanoTime()-start)/1e9;
+        System.out.printf("Ledger: %d transactions written in %.1f s%n",transactions,loadSeconds);
+
+        start=System.nanoTime();
+        SettlementReport report=new SettlementEngine(ledger,partitions).settle(0,Long.MAX_VALUE,dir.resolve("settlement"));
+        double settleSeconds=(System.nanoTime()-start)/1e9;
+        System.out.println(report);
+        System.out.printf("Settled in %.1f s, %.0f transactions/s, heap used %d MB%n",settleSeconds,transactions/settleSeconds,
+                (Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())>>20);
+        ledger.close();
+    }
+}
+
 class ATM{
-    static ATM instance;
     Map<Integer,Integer> enumeration=new HashMap<>();
-    State currState;
+    // states hold no data of their own, every session shares these instances
     State idleState;
     State hasCardInsertedState;
     State selectOperationState;
     State dispenseState;
-    State depositState;
-    double balance;
+    State printPassBookState;
+    // cash in the cassettes, in paise
+    AtomicLong cash;
+    int atmId=1;
+    PinVerifier pinVerifier=new PinVerifier(10_000,5*60*1000);
+    // no history is kept until a ledger is attached
+    volatile TransactionLedger ledger;
 
     ATM(){
-        this.currState=new IdleState();
-        this.balance=10000000;
+        this.idleState=new IdleState();
+        this.hasCardInsertedState=new HasCardInsertedState();
+        this.selectOperationState=new SelectOperationState();
+        this.dispenseState=new DispenseState();
+        this.printPassBookState=new PrintPassBook();
+        this.cash=new AtomicLong(Money.toMinor(10000000));
+    }
+
+    // holder idiom: the JVM creates the instance once on first use, reads take no lock
+    private static class Holder{
+        static final ATM INSTANCE=new ATM();
     }
 
     static ATM getInstance(){
-        if(instance==null) instance=new ATM();
-        return instance;
+        return Holder.INSTANCE;
     }
 
-    State getCurrState(){
-        return currState;
+    long getATMBalance(){
+        return cash.get();
     }
 
-    double getATMBalance(){
-        return balance;
+    // one ledger for the ATM's lifetime; a second attach is a wiring mistake, not a way to swap history
+    synchronized void attachLedger(TransactionLedger ledger){
+        if(this.ledger!=null) throw new IllegalStateException("A ledger is already attached");
+        this.ledger=ledger;
+    }
+
+    synchronized void detachLedger(TransactionLedger ledger){
+        if(this.ledger==ledger) this.ledger=null;
+    }
+
+    void addCash(long amount){
+        record(TransactionType.AdminTopUp,TransactionLedger.ATM_CASH_ACCOUNT,amount,()->cash.addAndGet(amount));
+    }
+
+    long deposit(BankAccount account, long amount){
+        return record(TransactionType.Deposit,account.accountNo,amount,()->account.credit(amount));
+    }
+
+    /*
+     Takes the cash out of the cassettes and the same amount off the account as one step. Cash is
+     reserved first and put back if the debit fails, so the ATM never promises notes it does not
+     have and money is neither created nor lost in between. Returns the account balance after the
+     debit, or -1 if the ATM or the account is short.
+     */
+    long dispense(BankAccount account, long amount){
+        if(amount<=0) return -1;
+        while(true){
+            long current=cash.get();
+            if(current<amount) return -1;
+            if(cash.compareAndSet(current,current-amount)) break;
+        }
+        long after=record(TransactionType.Withdraw,account.accountNo,amount,()->account.debit(amount));
+        if(after<0) cash.addAndGet(amount);
+        return after;
+    }
+
+    // applies the balance change and appends it under the ledger's lock, so the running balances in the
+    // passbook come out in the order they happened; a negative result is a refused change and is not recorded
+    private long record(TransactionType type, String accountNo, long amount, java.util.function.LongSupplier change){
+        TransactionLedger current=ledger;
+        if(current==null) return change.getAsLong();
+        synchronized (current){
+            long after=change.getAsLong();
+            if(after>=0) current.append(type,accountNo,amount,after,atmId);
+            return after;
+        }
+    }
+}
+
+/*
+ One card session at one terminal. The state machine position lives here rather than on the ATM, so
+ terminals do not see each other's transitions. Calls for a terminal are serialized on its session.
+ */
+class Session{
+    String terminalId;
+    State currState;
+    User user;
+    volatile long lastActive;
+
+    Session(String terminalId, State initialState){
+        this.terminalId=terminalId;
+        this.currState=initialState;
+        this.lastActive=System.currentTimeMillis();
+    }
+
+    State getCurrState(){
+        return currState;
     }
 
     void setState(State state){
@@ -104,52 +1008,121 @@ class ATM{
     }
 }
 
+/*
+ Live sessions by terminal. A session is created on first use and evicted once it has been idle
+ longer than the timeout, which ejects any card left in it.
+ */
+class SessionRegistry{
+    Map<String,Session> sessions=new ConcurrentHashMap<>();
+    long idleTimeoutMillis;
+    ScheduledExecutorService evictor=Executors.newSingleThreadScheduledExecutor(runnable->{
+        Thread thread=new Thread(runnable,"atm-session-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    SessionRegistry(long idleTimeoutMillis){
+        this.idleTimeoutMillis=idleTimeoutMillis;
+        long period=Math.max(1,idleTimeoutMillis/2);
+        evictor.scheduleWithFixedDelay(this::evictIdle,period,period,TimeUnit.MILLISECONDS);
+    }
+
+    Session session(String terminalId){
+        Session session=sessions.computeIfAbsent(terminalId,id->new Session(id,ATM.getInstance().idleState));
+        session.lastActive=System.currentTimeMillis();
+        return session;
+    }
+
+    // runs the action under the session's lock, on a session the evictor has not dropped meanwhile
+    void withSession(String terminalId, Consumer<Session> action){
+        while(true){
+            Session session=session(terminalId);
+            synchronized (session){
+                if(sessions.get(terminalId)==session){
+                    action.accept(session);
+                    return;
+                }
+            }
+        }
+    }
+
+    int size(){
+        return sessions.size();
+    }
+
+    void evictIdle(){
+        long cutoff=System.currentTimeMillis()-idleTimeoutMillis;
+        for(Session session:sessions.values()){
+            if(session.lastActive>=cutoff) continue;
+            synchronized (session){
+                // checked again under the lock, the terminal may have been used meanwhile
+                if(session.lastActive<cutoff && sessions.remove(session.terminalId,session)){
+                    session.user=null;
+                    session.setState(ATM.getInstance().idleState);
+                }
+            }
+        }
+    }
+
+    void shutdown(){
+        evictor.shutdownNow();
+    }
+}
+
 interface State{
-    void insertCard(User user);
-    void authenticateUser(User user, String pin);
-    void performOperation(User user, Operation operation, double money);
-    void ejectCard(User user);
+    void insertCard(Session session, User user);
+    void authenticateUser(Session session, User user, String pin);
+    void performOperation(Session session, User user, Operation operation, long amount);
+    void ejectCard(Session session, User user);
 }
 
 class IdleState implements State{
     @Override
-    public void insertCard(User user){
+    public void insertCard(Session session, User user){
         System.out.println("Card inserting...");
-        ATM.getInstance().setState(new HasCardInsertedState());
+        session.user=user;
+        session.setState(ATM.getInstance().hasCardInsertedState);
         System.out.println("Card inserted...");
     }
 
     @Override
-    public void authenticateUser(User user, String pin){
+    public void authenticateUser(Session session, User user, String pin){
         System.out.println("Please insert card first");
     }
 
     @Override
-    public void performOperation(User user, Operation operation, double money){
+    public void performOperation(Session session, User user, Operation operation, long amount){
         System.out.println("Please insert card first");
     }
 
     @Override
-    public void ejectCard(User user){
+    public void ejectCard(Session session, User user){
         System.out.println("Please insert card first");
     }
 }
 
 class HasCardInsertedState implements State{
     @Override
-    public void insertCard(User user){
+    public void insertCard(Session session, User user){
         System.out.println("Card Already Inserted");
     }
 
     @Override
-    public void authenticateUser(User user, String pin){
-        if(user.card.validatePin(pin)){
+    public void authenticateUser(Session session, User user, String pin){
+        if(user.card.isBlocked()){
+            System.out.println("Card Blocked");
+            return;
+        }
+        if(ATM.getInstance().pinVerifier.verify(user.card,pin)){
             System.out.println("Please select kind of operation");
             System.out.println(Operation.PrintPassBook);
             System.out.println(Operation.CheckBalance);
             System.out.println(Operation.WithdrawMoney);
 
-            ATM.getInstance().setState(new SelectOperationState());
+            session.setState(ATM.getInstance().selectOperationState);
+        }
+        else if(user.card.isBlocked()){
+            System.out.println("Wrong Pin Entered, Card Blocked");
         }
         else{
             System.out.println("Wrong Pin Entered");
@@ -157,43 +1130,44 @@ class HasCardInsertedState implements State{
     }
 
     @Override
-    public void performOperation(User user, Operation operation, double money){
+    public void performOperation(Session session, User user, Operation operation, long amount){
         System.out.println("Authenticate First");
     }
 
     @Override
-    public void ejectCard(User user){
+    public void ejectCard(Session session, User user){
         System.out.println("Card Ejecting");
-        ATM.getInstance().setState(new IdleState());
+        session.user=null;
+        session.setState(ATM.getInstance().idleState);
     }
 }
 
 class SelectOperationState implements State{
     @Override
-    public void insertCard(User user){
+    public void insertCard(Session session, User user){
         System.out.println("Card already inserted");
     }
 
     @Override
-    public void authenticateUser(User user, String pin){
+    public void authenticateUser(Session session, User user, String pin){
         System.out.println("User already authenticated");
     }
 
     @Override
-    public void performOperation(User user, Operation operation, double money){
+    public void performOperation(Session session, User user, Operation operation, long amount){
         switch (operation){
             case CheckBalance: {
-                System.out.println("Money in "+user.userName+" account is : "+user.account.balance);
+                System.out.println("Money in "+user.userName+" account is : "+Money.format(user.account.getBalance()));
                 return;
             }
             case WithdrawMoney:{
-                ATM.getInstance().setState(new DispenseState());
-                ATM.getInstance().getCurrState().performOperation(user,operation,money);
+                session.setState(ATM.getInstance().dispenseState);
+                session.getCurrState().performOperation(session,user,operation,amount);
                 return;
             }
             case PrintPassBook:{
-                ATM.getInstance().setState(new PrintPassBook());
-                ATM.getInstance().getCurrState().performOperation(user,operation,money);
+                session.setState(ATM.getInstance().printPassBookState);
+                session.getCurrState().performOperation(session,user,operation,amount);
                 return;
             }
             default: throw new IllegalArgumentException("Invalid Operation");
@@ -201,27 +1175,29 @@ class SelectOperationState implements State{
     }
 
     @Override
-    public void ejectCard(User user){
+    public void ejectCard(Session session, User user){
         System.out.println("Card Ejecting");
-        ATM.getInstance().setState(new IdleState());
+        session.user=null;
+        session.setState(ATM.getInstance().idleState);
     }
 }
 
 class DispenseState implements State{
     @Override
-    public void insertCard(User user){
+    public void insertCard(Session session, User user){
         System.out.println("Card already inserted");
     }
 
     @Override
-    public void authenticateUser(User user, String pin){
+    public void authenticateUser(Session session, User user, String pin){
         System.out.println("User already authenticated");
     }
 
     @Override
-    public void performOperation(User user, Operation operation, double money){
-        if(ATM.getInstance().getATMBalance()>=money && user.account.withDrawBalance(money)){
-            System.out.println("Remaining money left: "+user.account.balance);
+    public void performOperation(Session session, User user, Operation operation, long amount){
+        long after=ATM.getInstance().dispense(user.account,amount);
+        if(after>=0){
+            System.out.println("Remaining money left: "+Money.format(after));
         }
         else{
             System.out.println("Not enough money");
@@ -229,57 +1205,322 @@ class DispenseState implements State{
     }
 
     @Override
-    public void ejectCard(User user){
+    public void ejectCard(Session session, User user){
         System.out.println("Card Ejecting");
-        ATM.getInstance().setState(new IdleState());
+        session.user=null;
+        session.setState(ATM.getInstance().idleState);
     }
 }
 
 class PrintPassBook implements State{
+    static final int PASSBOOK_ENTRIES=10;
+
     @Override
-    public void insertCard(User user){
+    public void insertCard(Session session, User user){
         System.out.println("Card already inserted");
     }
 
     @Override
-    public void authenticateUser(User user, String pin){
+    public void authenticateUser(Session session, User user, String pin){
         System.out.println("User already authenticated");
     }
 
     @Override
-    public void performOperation(User user, Operation operation, double money){
+    public void performOperation(Session session, User user, Operation operation, long amount){
         System.out.println("Printing Passbook...");
-        System.out.println(user.userName+" : "+user.account.balance);
+        TransactionLedger ledger=ATM.getInstance().ledger;
+        if(ledger!=null){
+            for(LedgerEntry entry:ledger.lastEntries(user.account.accountNo,PASSBOOK_ENTRIES)){
+                System.out.println(entry);
+            }
+        }
+        System.out.println(user.userName+" : "+Money.format(user.account.getBalance()));
     }
 
     @Override
-    public void ejectCard(User user){
+    public void ejectCard(Session session, User user){
         System.out.println("Card Ejecting");
-        ATM.getInstance().setState(new IdleState());
+        session.user=null;
+        session.setState(ATM.getInstance().idleState);
     }
 }
 
 class ATMService{
+    static final String DEFAULT_TERMINAL="default";
+    static final long SESSION_IDLE_TIMEOUT_MILLIS=2*60*1000;
+
     ATM atm;
+    SessionRegistry sessions;
+    // the ledger this service attached to the ATM, closed again on shutdown
+    TransactionLedger ledger;
 
+    // keeps no transaction history
     public ATMService(){
+        this(SESSION_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public ATMService(long sessionIdleTimeoutMillis){
         atm=ATM.getInstance();
+        sessions=new SessionRegistry(sessionIdleTimeoutMillis);
     }
 
+    public ATMService(long sessionIdleTimeoutMillis, Path ledgerDir){
+        this(sessionIdleTimeoutMillis,new TransactionLedger(ledgerDir));
+    }
+
+    public ATMService(long sessionIdleTimeoutMillis, TransactionLedger ledger){
+        atm=ATM.getInstance();
+        atm.attachLedger(ledger);
+        this.ledger=ledger;
+        sessions=new SessionRegistry(sessionIdleTimeoutMillis);
+    }
+
+    void insertCard(String terminalId, User user){
+        sessions.withSession(terminalId,session->session.getCurrState().insertCard(session,user));
+    }
+
+    void authenticateUser(String terminalId, User user, String pin){
+        sessions.withSession(terminalId,session->{
+            if(isCardholder(session,user)) session.getCurrState().authenticateUser(session,user,pin);
+        });
+    }
+
+    void performOperation(String terminalId, User user, Operation operation, double money){
+        long amount=Money.toMinor(money);
+        sessions.withSession(terminalId,session->{
+            if(isCardholder(session,user)) session.getCurrState().performOperation(session,user,operation,amount);
+        });
+    }
+
+    void ejectCard(String terminalId, User user){
+        sessions.withSession(terminalId,session->{
+            if(isCardholder(session,user)) session.getCurrState().ejectCard(session,user);
+        });
+    }
+
+    // once a card is in, only its holder can act on the session: no PIN guesses, operations or eject for anybody else
+    private static boolean isCardholder(Session session, User user){
+        if(session.user==null || session.user==user) return true;
+        System.out.println("Card of another user is inserted");
+        return false;
+    }
+
+    // single terminal callers keep the original API
     void insertCard(User user){
-        ATM.getInstance().getCurrState().insertCard(user);
+        insertCard(DEFAULT_TERMINAL,user);
     }
 
     void authenticateUser(User user, String pin){
-        ATM.getInstance().getCurrState().authenticateUser(user,pin);
+        authenticateUser(DEFAULT_TERMINAL,user,pin);
     }
 
     void performOperation(User user, Operation operation, double money){
-        ATM.getInstance().getCurrState().performOperation(user,operation,money);
+        performOperation(DEFAULT_TERMINAL,user,operation,money);
     }
 
     void ejectCard(User user){
-        ATM.getInstance().getCurrState().ejectCard(user);
+        ejectCard(DEFAULT_TERMINAL,user);
+    }
+
+    void shutdown(){
+        sessions.shutdown();
+        if(ledger!=null){
+            atm.detachLedger(ledger);
+            ledger.close();
+        }
+    }
+}
+
+/*
+ Session throughput across many terminals: each thread drives its share of the terminals through
+ insert, authenticate, balance check and eject. Run with
+ `java -cp <classes> SessionBenchmark [terminals] [threads] [seconds]`.
+ */
+class SessionBenchmark{
+    public static void main(String[] args) throws Exception{
+        int terminals=args.length>0 ? Integer.parseInt(args[0]) : 1000;
+        int threads=args.length>1 ? Integer.parseInt(args[1]) : 8;
+        int seconds=args.length>2 ? Integer.parseInt(args[2]) : 5;
+
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        ATMService service=new ATMService();
+        User[] users=new User[terminals];
+        // one card for everybody, hashing a thousand PINs would dominate the run
+        Card card=new Card("C1","123","User","1234");
+        for(int i=0;i<terminals;i++){
+            users[i]=new User("User"+i,new BankAccount("AC"+i,1_000_000),card);
+        }
+
+        LongAdder operations=new LongAdder();
+        long until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers=new ArrayList<>();
+        for(int t=0;t<threads;t++){
+            int first=t;
+            Thread worker=new Thread(()->{
+                while(System.nanoTime()<until){
+                    for(int terminal=first;terminal<terminals;terminal+=threads){
+                        String terminalId="T"+terminal;
+                        User user=users[terminal];
+                        service.insertCard(terminalId,user);
+                        service.authenticateUser(terminalId,user,"1234");
+                        service.performOperation(terminalId,user,Operation.CheckBalance,0);
+                        service.ejectCard(terminalId,user);
+                        operations.add(4);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for(Thread worker:workers){
+            worker.join();
+        }
+        service.shutdown();
+        System.setOut(console);
+        System.out.printf("%d terminals, %d threads: %.0f session ops/s, %d live sessions%n",
+                terminals,threads,operations.sum()/(double)seconds,service.sessions.size());
+    }
+}
+
+/*
+ Withdrawals from many threads against a few hot joint accounts, through ATM.dispense. Checks that
+ money is conserved, i.e. what left the accounts equals what left the cassettes and no balance went
+ negative, and that overdrafts were actually refused; throws otherwise. Reports debits per second. Run with `java -cp <classes> BalanceStress [threads] [accounts] [seconds]`.
+ */
+class BalanceStress{
+    public static void main(String[] args) throws Exception{
+        int threads=args.length>0 ? Integer.parseInt(args[0]) : 8;
+        int accountCount=args.length>1 ? Integer.parseInt(args[1]) : 4;
+        int seconds=args.length>2 ? Integer.parseInt(args[2]) : 5;
+
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        ATM atm=ATM.getInstance();
+        BankAccount[] accounts=new BankAccount[accountCount];
+        long accountsBefore=0;
+        for(int i=0;i<accountCount;i++){
+            accounts[i]=new BankAccount("AC"+i,50_000);
+            accountsBefore+=accounts[i].getBalance();
+        }
+        long cashBefore=atm.getATMBalance();
+
+        LongAdder debits=new LongAdder();
+        LongAdder refused=new LongAdder();
+        LongAdder toppedUp=new LongAdder();
+        long until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers=new ArrayList<>();
+        for(int t=0;t<threads;t++){
+            int seed=t;
+            Thread worker=new Thread(()->{
+                Random random=new Random(seed);
+                while(System.nanoTime()<until){
+                    BankAccount account=accounts[random.nextInt(accountCount)];
+                    // withdrawals far outrun the occasional refill, so accounts keep running dry and
+                    // concurrent debits race for the last rupees, which the CAS must refuse
+                    if(random.nextInt(200)==0){
+                        account.credit(Money.toMinor(10_000));
+                        atm.addCash(Money.toMinor(10_000));
+                        toppedUp.add(Money.toMinor(10_000));
+                    }
+                    if(atm.dispense(account,1+random.nextInt((int)Money.toMinor(10_000)))>=0) debits.increment();
+                    else refused.increment();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for(Thread worker:workers){
+            worker.join();
+        }
+        System.setOut(console);
+
+        long accountsAfter=0;
+        boolean negative=false;
+        for(BankAccount account:accounts){
+            accountsAfter+=account.getBalance();
+            negative|=account.getBalance()<0;
+        }
+        long cashOut=cashBefore+toppedUp.sum()-atm.getATMBalance();
+        long debited=accountsBefore+toppedUp.sum()-accountsAfter;
+        System.out.printf("%d threads on %d accounts: %.0f debits/s, %d refused%n",
+                threads,accountCount,debits.sum()/(double)seconds,refused.sum());
+        System.out.printf("Cash dispensed %s, accounts debited %s, conserved: %b, negative balance: %b%n",
+                Money.format(cashOut),Money.format(debited),cashOut==debited,negative);
+        if(cashOut!=debited || negative || refused.sum()==0) throw new IllegalStateException("Balance stress failed");
+    }
+}
+
+/*
+ PIN authentications per second on one thread: the full KDF check against the cached verifier path.
+ Run with `java -cp <classes> PinBenchmark [seconds]`.
+ */
+class PinBenchmark{
+    public static void main(String[] args){
+        int seconds=args.length>0 ? Integer.parseInt(args[0]) : 3;
+        Card card=new Card("C1","123","Bench","4321");
+
+        long count=0;
+        long until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+        while(System.nanoTime()<until){
+            if(!card.validatePin("4321")) throw new IllegalStateException("PIN rejected");
+            count++;
+        }
+        System.out.printf("KDF check: %.0f authentications/s%n",count/(double)seconds);
+
+        PinVerifier verifier=new PinVerifier(10_000,60_000);
+        verifier.verify(card,"4321");
+        count=0;
+        until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+        while(System.nanoTime()<until){
+            if(!verifier.verify(card,"4321")) throw new IllegalStateException("PIN rejected");
+            count++;
+        }
+        System.out.printf("Cached verifier: %.0f authentications/s%n",count/(double)seconds);
+    }
+}
+
+/*
+ Concurrent startup of the ATM singleton: many threads race the first getInstance and must all get
+ the same ATM. Then times the hot getInstance() read that every ATMService call makes.
+ Run with `java -cp <classes> SingletonStartupCheck`.
+ */
+class SingletonStartupCheck{
+    static volatile ATM sink;
+
+    public static void main(String[] args) throws Exception{
+        int threads=64;
+        Set<ATM> seen=ConcurrentHashMap.newKeySet();
+        CountDownLatch start=new CountDownLatch(1);
+        List<Thread> starters=new ArrayList<>();
+        for(int t=0;t<threads;t++){
+            Thread thread=new Thread(()->{
+                try{
+                    start.await();
+                }
+                catch (InterruptedException e){
+                    return;
+                }
+                seen.add(ATM.getInstance());
+            });
+            starters.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread:starters){
+            thread.join();
+        }
+        System.out.println(threads+" threads starting up saw "+seen.size()+" ATM instance(s)");
+        if(seen.size()!=1) throw new IllegalStateException("More than one ATM created");
+
+        int iterations=100_000_000;
+        for(int round=0;round<3;round++){
+            long begin=System.nanoTime();
+            for(int i=0;i<iterations;i++){
+                sink=ATM.getInstance();
+            }
+            System.out.printf("getInstance(): %.2f ns per call%n",(double)(System.nanoTime()-begin)/iterations);
+        }
     }
 }
 
@@ -290,11 +1531,18 @@ public class Main {
         Card card1=new Card(UUID.randomUUID().toString(),"1234","Mukul","567");
         User u1=new User("Mukul",bankAccount1,card1);
 
-        ATMService service=new ATMService();
+        ATMService service=new ATMService(ATMService.SESSION_IDLE_TIMEOUT_MILLIS,TransactionLedger.temporary());
         service.insertCard(u1);
         service.authenticateUser(u1,"567");
         service.performOperation(u1,Operation.WithdrawMoney,345);
         service.ejectCard(u1);
         service.authenticateUser(u1,"313");
+
+        // a second terminal keeps its own session
+        service.insertCard("T2",u1);
+        service.authenticateUser("T2",u1,"567");
+        service.performOperation("T2",u1,Operation.PrintPassBook,0);
+        service.ejectCard("T2",u1);
+        service.shutdown();
     }
 }
\ No newline at end of file
@@ -1,4 +1,35 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /*
 
@@ -39,6 +70,9 @@ class Show{
     String showName;
     double duration;
     Date date;
+    Hall hall;
+    // created when the show opens for sale, so shows far in the future cost nothing
+    volatile ShowSeatInventory inventory;
 
     public Show(String showId, String showName, double duration, Date date){
         this.showId=showId;
@@ -46,13 +80,26 @@ class Show{
         this.duration=duration;
         this.date=date;
     }
+
+    ShowSeatInventory openForSale(){
+        ShowSeatInventory current=inventory;
+        if(current!=null) return current;
+        if(hall==null) throw new IllegalStateException("Show is not scheduled in a hall");
+        synchronized (this){
+            if(inventory==null) inventory=new ShowSeatInventory(hall);
+            return inventory;
+        }
+    }
 }
 
 class Seat{
     String seatId;
+    // physical condition of the seat in the hall; whether it is booked is tracked per show
     SeatStatus seatStatus;
     SeatType seatType;
     double price;
+    // position of the seat in its hall, used to address per-show seat state
+    int index;
 
     public Seat(String seatId, SeatStatus seatStatus, SeatType seatType){
         this.seatId=seatId;
@@ -63,6 +110,7 @@ class Seat{
     //getter setter for seatStatus
 }
 
+// base fares; what a show actually charges comes from DynamicPricing
 class Pricing{
     static Map<SeatType,Double> priceDb=new HashMap<>();
 
@@ -81,11 +129,34 @@ class Hall{
     String hallId;
     List<Seat> seats;
     List<Show> shows;
+    // seats are laid out row by row in list order
+    int seatsPerRow;
+    // seat layout shared by every show in the hall: one bit per seat, by seat type and for seats under maintenance
+    long[][] typeMasks;
+    long[] maintenanceMask;
 
     public Hall(String hallId, List<Seat> seats, List<Show> shows){
+        this(hallId,seats,shows,Math.max(1,seats.size()));
+    }
+
+    public Hall(String hallId, List<Seat> seats, List<Show> shows, int seatsPerRow){
         this.hallId=hallId;
         this.seats=seats;
         this.shows=shows;
+        this.seatsPerRow=seatsPerRow;
+
+        int words=(seats.size()+63)/64;
+        this.typeMasks=new long[SeatType.values().length][words];
+        this.maintenanceMask=new long[words];
+        for(int i=0;i<seats.size();i++){
+            Seat seat=seats.get(i);
+            seat.index=i;
+            typeMasks[seat.seatType.ordinal()][i>>>6]|=1L<<i;
+            if(seat.seatStatus==SeatStatus.InMaintainance) maintenanceMask[i>>>6]|=1L<<i;
+        }
+        for(Show show:shows){
+            show.hall=this;
+        }
     }
 }
 
@@ -133,139 +204,2678 @@ class PaymentFactory{
 }
 
 class Booking{
-    String bookingId;
+    long bookingId;
     User user;
     Show show;
     Seat seat;
+    List<Seat> seats;
     PaymentMode paymentMode;
 
-    public Booking(String bookingId, User user, Show show, Seat seat, PaymentMode paymentMode){
+    public Booking(long bookingId, User user, Show show, Seat seat, PaymentMode paymentMode){
+        this(bookingId,user,show,Collections.singletonList(seat),paymentMode);
+    }
+
+    public Booking(long bookingId, User user, Show show, List<Seat> seats, PaymentMode paymentMode){
         this.bookingId=bookingId;
         this.user=user;
         this.show=show;
-        this.seat=seat;
+        this.seat=seats.get(0);
+        this.seats=seats;
         this.paymentMode=paymentMode;
     }
+
+    String seatIds(){
+        StringJoiner ids=new StringJoiner(", ");
+        for(Seat seat:seats){
+            ids.add(seat.seatId);
+        }
+        return ids.toString();
+    }
 }
 
-class NotificationService{
-    void sendBookingConfirmation(User user, Booking booking){
-        System.out.println("Booking confirmed for "+user.userName+" Seat: "+booking.seat.seatId);
+/* ======= Concurrent Booking Engine ======= */
+
+/*
+ Seat inventory of a single show: one bit per hall seat, set while the seat is held, booked or under
+ maintenance. A 500 seat hall needs 8 words, so even 100k open shows stay in the tens of megabytes.
+ */
+class ShowSeatInventory{
+    Hall hall;
+    AtomicLongArray taken;
+    // bumped on every change, cached seat maps built at an older version are stale
+    AtomicLong version=new AtomicLong();
+    // seats neither taken nor held, so a sold out show can be refused without scanning the bitset
+    AtomicInteger remaining;
+    // taken or held seats and sellable seats per seat type, indexed by ordinal
+    AtomicIntegerArray takenByType;
+    int[] capacityByType;
+    // current fare per seat type, replaced as a whole by DynamicPricing and never modified in place
+    volatile double[] prices;
+
+    ShowSeatInventory(Hall hall){
+        this.hall=hall;
+        this.taken=new AtomicLongArray(hall.maintenanceMask);
+        int blocked=0;
+        for(long word:hall.maintenanceMask){
+            blocked+=Long.bitCount(word);
+        }
+        this.remaining=new AtomicInteger(hall.seats.size()-blocked);
+
+        this.takenByType=new AtomicIntegerArray(SeatType.values().length);
+        this.capacityByType=new int[SeatType.values().length];
+        for(int type=0;type<capacityByType.length;type++){
+            for(int word=0;word<taken.length();word++){
+                capacityByType[type]+=Long.bitCount(hall.typeMasks[type][word]&~hall.maintenanceMask[word]);
+            }
+        }
     }
 
-    void cancelBookingConfirmation(User user, Booking booking){
-        System.out.println("Booking CANCELLED for "+user.userName+" Seat: "+booking.seat.seatId);
+    double occupancy(SeatType seatType){
+        int capacity=capacityByType[seatType.ordinal()];
+        return capacity==0 ? 1 : (double)takenByType.get(seatType.ordinal())/capacity;
     }
-}
 
-class SearchService{
-    List<Show> searchShows(List<Show> shows, String showName, Date date){
-        List<Show> res=new ArrayList<>();
-        for(Show show:shows){
-            if(show.showName.equalsIgnoreCase(showName) && show.date.equals(date)){
-                res.add(show);
+    boolean isSoldOut(){
+        return remaining.get()<=0;
+    }
+
+    boolean tryTake(int seat){
+        return takeWord(seat>>>6,1L<<seat);
+    }
+
+    void release(int seat){
+        releaseWord(seat>>>6,1L<<seat);
+    }
+
+    /*
+     Takes every seat or none. Seats must be sorted by index: words are claimed in ascending order with
+     one CAS each, and on a conflict the words already claimed are handed back. Nothing ever waits on
+     another request, so overlapping group bookings cannot deadlock.
+     */
+    boolean tryTakeAll(List<Seat> sortedSeats){
+        int[] words=new int[sortedSeats.size()];
+        long[] masks=new long[sortedSeats.size()];
+        int groups=0;
+        for(Seat seat:sortedSeats){
+            int word=seat.index>>>6;
+            if(groups>0 && words[groups-1]==word){
+                masks[groups-1]|=1L<<seat.index;
+            }
+            else{
+                words[groups]=word;
+                masks[groups++]=1L<<seat.index;
+            }
+        }
+
+        for(int g=0;g<groups;g++){
+            if(!takeWord(words[g],masks[g])){
+                for(int r=0;r<g;r++){
+                    releaseWord(words[r],masks[r]);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void releaseAll(List<Seat> seats){
+        for(Seat seat:seats){
+            release(seat.index);
+        }
+    }
+
+    // best run of `count` free adjacent seats of the type: closest to the middle of its row, front rows first
+    List<Seat> findAdjacent(int count, SeatType seatType){
+        long[] typeMask=hall.typeMasks[seatType.ordinal()];
+        int rowLength=hall.seatsPerRow;
+        int bestStart=-1;
+        int bestOffset=Integer.MAX_VALUE;
+        for(int rowStart=0;rowStart<hall.seats.size();rowStart+=rowLength){
+            int rowEnd=Math.min(rowStart+rowLength,hall.seats.size());
+            // twice the row centre, so distances stay integral
+            int rowCentre2=rowStart+rowEnd-1;
+            int run=0;
+            for(int i=rowStart;i<rowEnd;i++){
+                boolean free=(typeMask[i>>>6]&~taken.get(i>>>6)&(1L<<i))!=0;
+                run=free ? run+1 : 0;
+                if(run<count) continue;
+
+                int start=i-count+1;
+                int offset=Math.abs(start+i-rowCentre2);
+                if(offset<bestOffset){
+                    bestOffset=offset;
+                    bestStart=start;
+                }
+            }
+            if(bestStart>=0 && bestOffset<=1) break;
+        }
+
+        if(bestStart<0) return new ArrayList<>();
+        return new ArrayList<>(hall.seats.subList(bestStart,bestStart+count));
+    }
+
+    private boolean takeWord(int word, long mask){
+        while(true){
+            long current=taken.get(word);
+            if((current&mask)!=0) return false;
+            if(taken.compareAndSet(word,current,current|mask)){
+                remaining.addAndGet(-Long.bitCount(mask));
+                countByType(word,mask,1);
+                version.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    private void releaseWord(int word, long mask){
+        while(true){
+            long current=taken.get(word);
+            if((current&mask)==0) return;
+            if(taken.compareAndSet(word,current,current&~mask)){
+                remaining.addAndGet(Long.bitCount(current&mask));
+                countByType(word,current&mask,-1);
+                version.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void countByType(int word, long mask, int sign){
+        for(int type=0;type<capacityByType.length;type++){
+            int seats=Long.bitCount(hall.typeMasks[type][word]&mask);
+            if(seats!=0) takenByType.addAndGet(type,sign*seats);
+        }
+    }
+
+    boolean isTaken(int seat){
+        return (taken.get(seat>>>6)&(1L<<seat))!=0;
+    }
+
+    int availableCount(SeatType seatType){
+        long[] typeMask=hall.typeMasks[seatType.ordinal()];
+        int count=0;
+        for(int word=0;word<typeMask.length;word++){
+            count+=Long.bitCount(typeMask[word]&~taken.get(word));
+        }
+        return count;
+    }
+
+    List<Seat> availableSeats(SeatType seatType){
+        long[] typeMask=hall.typeMasks[seatType.ordinal()];
+        List<Seat> res=new ArrayList<>();
+        for(int word=0;word<typeMask.length;word++){
+            long free=typeMask[word]&~taken.get(word);
+            while(free!=0){
+                res.add(hall.seats.get((word<<6)+Long.numberOfTrailingZeros(free)));
+                free&=free-1;
             }
         }
         return res;
     }
 }
 
-class MovieBookingService{
-    NotificationService notificationService;
-    SearchService searchService;
-    Map<String,Booking> bookingDb=new HashMap<>();
+class SeatHold{
+    long holdId;
+    Show show;
+    List<Seat> seats;
+    long expiresAt;
+    // cancelled on confirm so settled holds do not sit in the scheduler until their ttl runs out
+    volatile ScheduledFuture<?> expiry;
 
-    public MovieBookingService(){
-        this.notificationService=new NotificationService();
-        this.searchService=new SearchService();
+    SeatHold(long holdId, Show show, List<Seat> seats, long expiresAt){
+        this.holdId=holdId;
+        this.show=show;
+        this.seats=seats;
+        this.expiresAt=expiresAt;
     }
+}
 
-    public List<Show> searchShows(List<Show> shows, String showName, Date date){
-        return searchService.searchShows(shows,showName,date);
+/*
+ Seats are held with a CAS per seat on the show's bitset, so there is no lock shared between shows
+ or even between seats. A hold is settled exactly once: whoever removes it from the holds map first,
+ confirm() or the expiry task, decides whether the seats stay taken or go back on sale.
+ */
+class BookingEngine{
+    Map<Long,SeatHold> holds=new ConcurrentHashMap<>();
+    AtomicLong holdIds=new AtomicLong();
+    ScheduledThreadPoolExecutor expiry=new ScheduledThreadPoolExecutor(1,runnable->{
+        Thread thread=new Thread(runnable,"seat-hold-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    BookingEngine(){
+        expiry.setRemoveOnCancelPolicy(true);
     }
 
-    public Booking bookSeat(User user, Show show, SeatType seatType, Seat seat, PaymentMode paymentMode){
-        if(seat.seatStatus!=SeatStatus.Available){
-            System.out.println("Seat not available");
-            return null;
+    // all or nothing: either every seat is held for the caller or none is
+    SeatHold hold(Show show, List<Seat> seats, long ttlMillis){
+        List<Seat> sorted=new ArrayList<>(seats);
+        sorted.sort(Comparator.comparingInt((Seat seat)->seat.index));
+        for(int i=0;i<sorted.size();i++){
+            if(sorted.get(i).seatStatus==SeatStatus.InMaintainance) return null;
+            if(i>0 && sorted.get(i).index==sorted.get(i-1).index) throw new IllegalArgumentException("Duplicate seat in request");
         }
+        if(!show.openForSale().tryTakeAll(sorted)) return null;
 
-        seat.seatStatus=SeatStatus.Booked;
+        SeatHold hold=new SeatHold(holdIds.incrementAndGet(),show,seats,System.currentTimeMillis()+ttlMillis);
+        holds.put(hold.holdId,hold);
+        hold.expiry=expiry.schedule(()->expire(hold),ttlMillis,TimeUnit.MILLISECONDS);
+        return hold;
+    }
 
-        double price=Pricing.getPrice(seatType);
-        String bookingId=UUID.randomUUID().toString();
-        Booking booking=new Booking(bookingId,user,show,seat,paymentMode);
+    boolean confirm(long holdId){
+        SeatHold hold=holds.remove(holdId);
+        if(hold==null) return false;
+        ScheduledFuture<?> pending=hold.expiry;
+        if(pending!=null) pending.cancel(false);
+        if(System.currentTimeMillis()>hold.expiresAt){
+            releaseSeats(hold.show,hold.seats);
+            return false;
+        }
+        return true;
+    }
 
-        Payment payment=PaymentFactory.getPaymentMethod(paymentMode);
-        payment.pay(price);
+    void releaseSeats(Show show, List<Seat> seats){
+        show.openForSale().releaseAll(seats);
+    }
 
-        bookingDb.put(bookingId,booking);
-        notificationService.sendBookingConfirmation(user,booking);
-        return booking;
+    boolean isAvailable(Show show, Seat seat){
+        return seat.seatStatus!=SeatStatus.InMaintainance && !show.openForSale().isTaken(seat.index);
     }
 
-    void cancelBooking(String bookingId){
-        Booking booking=bookingDb.get(bookingId);
-        if(booking==null){
-            System.out.println("Invalid Booking ID");
-            return;
+    void shutdown(){
+        expiry.shutdownNow();
+    }
+
+    private void expire(SeatHold hold){
+        if(holds.remove(hold.holdId,hold)) releaseSeats(hold.show,hold.seats);
+    }
+}
+
+/* ======= Admission Control ======= */
+
+/*
+ Token bucket stored as one timestamp: the point where the bucket would be empty. Taking a permit pushes
+ it one interval forward and fails if it would pass the current time. Refill comes from the clock,
+ so no timer thread is needed and a permit costs one CAS.
+ */
+class TokenBucket{
+    long intervalNanos;
+    long burstNanos;
+    AtomicLong emptyAt;
+
+    TokenBucket(double permitsPerSecond, int burst){
+        this.intervalNanos=Math.max(1,(long)(TimeUnit.SECONDS.toNanos(1)/permitsPerSecond));
+        this.burstNanos=intervalNanos*burst;
+        this.emptyAt=new AtomicLong(System.nanoTime()-burstNanos);
+    }
+
+    boolean tryAcquire(){
+        while(true){
+            long now=System.nanoTime();
+            long current=emptyAt.get();
+            // a bucket idle for a long time holds at most `burst` permits
+            long next=Math.max(current,now-burstNanos)+intervalNanos;
+            if(next>now) return false;
+            if(emptyAt.compareAndSet(current,next)) return true;
         }
+    }
+}
 
-        booking.seat.seatStatus=SeatStatus.Available;
+class QueueTicket{
+    User user;
+    Show show;
+    long sequence;
+    volatile BookingToken token;
+    // set by the first sweep that finds the ticket admitted
+    volatile long admittedAt;
+    // admitted but never polled for its token in time, its place went to the next caller
+    volatile boolean lapsed;
 
-        notificationService.cancelBookingConfirmation(booking.user,booking);
-        bookingDb.remove(bookingId);
+    QueueTicket(User user, Show show, long sequence){
+        this.user=user;
+        this.show=show;
+        this.sequence=sequence;
     }
 }
 
-public class Main {
-    public static void main(String[] args) {
+class BookingToken{
+    long tokenId;
+    User user;
+    Show show;
+    long expiresAt;
 
-        // Step 1: Create seats
-        List<Seat> seats = new ArrayList<>();
-        seats.add(new Seat("S1", SeatStatus.Available, SeatType.General));
-        seats.add(new Seat("S2", SeatStatus.Available, SeatType.Delux));
-        seats.add(new Seat("S3", SeatStatus.InMaintainance, SeatType.Luxury));
-        seats.add(new Seat("S4", SeatStatus.Available, SeatType.Luxury));
+    BookingToken(long tokenId, User user, Show show, long expiresAt){
+        this.tokenId=tokenId;
+        this.user=user;
+        this.show=show;
+        this.expiresAt=expiresAt;
+    }
 
-        // Step 2: Create a show
-        Show show = new Show("SH1", "Interstellar", 2.5, new Date());
+    boolean isExpired(){
+        return System.currentTimeMillis()>expiresAt;
+    }
+}
 
-        // Step 3: Create a hall with show and seats
-        List<Show> shows = new ArrayList<>();
-        shows.add(show);
-        Hall hall = new Hall("H1", seats, shows);
+/*
+ FIFO queue for one show. Joining takes the next sequence number and a caller is admitted once
+ admittedUpTo reaches it. The head moves forward only as fast as the bucket allows, and whichever
+ waiting caller polls moves it, so admission order is join order with no thread driving the queue.
+ Callers holding a live token never outnumber the seats left, so nobody is let in to race for a seat
+ that an earlier caller will take. Tickets stay in the room until they collect their token, so an
+ admitted caller that walks away can be lapsed instead of holding its place forever.
+ */
+class WaitingRoom{
+    TokenBucket bucket;
+    AtomicLong lastJoined=new AtomicLong();
+    AtomicLong admittedUpTo=new AtomicLong();
+    // admitted callers that are done: token used up by a booking or by expiring, or never collected
+    AtomicLong finished=new AtomicLong();
+    Map<Long,QueueTicket> uncollected=new ConcurrentHashMap<>();
 
-        // Step 4: Create theater with hall
-        List<Hall> halls = new ArrayList<>();
-        halls.add(hall);
-        Theater theater = new Theater();
-        theater.theaterId = "T1";
-        theater.theatername = "PVR";
-        theater.location = "Delhi";
-        theater.halls = halls;
+    WaitingRoom(double admitsPerSecond, int burst){
+        this.bucket=new TokenBucket(admitsPerSecond,burst);
+    }
 
-        // Step 5: Create services
-        MovieBookingService bookingService = new MovieBookingService();
+    long join(){
+        return lastJoined.incrementAndGet();
+    }
 
-        // Step 6: Create a user
-        User user = new User("U1", "Mukul");
+    void enter(QueueTicket ticket){
+        uncollected.put(ticket.sequence,ticket);
+    }
 
-        // Step 7: Search show
-        List<Show> resultShows = bookingService.searchShows(shows, "Interstellar", show.date);
-        System.out.println("Found Shows: " + resultShows.size());
+    void advance(int seatsLeft){
+        while(admittedUpTo.get()<lastJoined.get() && admittedUpTo.get()-finished.get()<seatsLeft && bucket.tryAcquire()){
+            admittedUpTo.getAndUpdate(admitted->Math.min(admitted+1,lastJoined.get()));
+        }
+    }
 
-        // Step 8: Try booking a seat
-        Seat selectedSeat = seats.get(1); // Delux, Available
-        Booking booking = bookingService.bookSeat(user, show, selectedSeat.seatType, selectedSeat, PaymentMode.UPI);
+    long positionOf(long sequence){
+        return Math.max(0,sequence-admittedUpTo.get());
+    }
+}
 
-        if (booking != null) {
-            System.out.println("Booking successful. Booking ID: " + booking.bookingId);
+/*
+ Sits in front of booking for shows that expect a rush. Callers join the show's waiting room, poll
+ until admitted, and get a single-use booking token that expires. A sold out show is refused on
+ the remaining-seat counter alone, before any queue or seat state is touched.
+ */
+class AdmissionController{
+    Map<String,WaitingRoom> rooms=new ConcurrentHashMap<>();
+    Map<Long,BookingToken> issued=new ConcurrentHashMap<>();
+    AtomicLong tokenIds=new AtomicLong();
+    long tokenTtlMillis;
+    ScheduledExecutorService sweeper=Executors.newSingleThreadScheduledExecutor(runnable->{
+        Thread thread=new Thread(runnable,"booking-token-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    AdmissionController(long tokenTtlMillis){
+        this.tokenTtlMillis=tokenTtlMillis;
+        sweeper.scheduleWithFixedDelay(this::sweep,1,1,TimeUnit.SECONDS);
+    }
+
+    void open(Show show, double admitsPerSecond, int burst){
+        rooms.putIfAbsent(show.showId,new WaitingRoom(admitsPerSecond,burst));
+    }
+
+    boolean isQueued(Show show){
+        return rooms.containsKey(show.showId);
+    }
+
+    // null if the show is sold out or has no waiting room
+    QueueTicket join(User user, Show show){
+        WaitingRoom room=rooms.get(show.showId);
+        if(room==null || show.openForSale().isSoldOut()) return null;
+        QueueTicket ticket=new QueueTicket(user,show,room.join());
+        room.enter(ticket);
+        return ticket;
+    }
+
+    // the caller's token once its turn has come, null while it is still waiting or once it has lapsed
+    BookingToken poll(QueueTicket ticket){
+        if(ticket.token!=null) return ticket.token;
+        WaitingRoom room=rooms.get(ticket.show.showId);
+        if(room==null) return null;
+        room.advance(ticket.show.openForSale().remaining.get());
+        if(ticket.sequence>room.admittedUpTo.get()) return null;
+
+        synchronized (ticket){
+            if(ticket.token==null && !ticket.lapsed){
+                BookingToken token=new BookingToken(tokenIds.incrementAndGet(),ticket.user,ticket.show,
+                        System.currentTimeMillis()+tokenTtlMillis);
+                issued.put(token.tokenId,token);
+                ticket.token=token;
+                room.uncollected.remove(ticket.sequence);
+            }
         }
+        return ticket.token;
+    }
 
-        // Step 9: Cancel booking
-        if (booking != null) {
-            bookingService.cancelBooking(booking.bookingId);
+    // -1 if the show has no waiting room
+    long positionOf(QueueTicket ticket){
+        WaitingRoom room=rooms.get(ticket.show.showId);
+        return room==null ? -1 : room.positionOf(ticket.sequence);
+    }
+
+    // single use: a token is removed when redeemed, so it cannot back two bookings at once. A token shown
+    // by the wrong user or for the wrong show stays issued, so it still reaches complete via its owner or the sweep
+    boolean redeem(BookingToken token, User user, Show show){
+        if(token.isExpired() || !token.user.userId.equals(user.userId) || token.show!=show) return false;
+        return issued.remove(token.tokenId,token);
+    }
+
+    // the token's booking went through, its place can go to the next caller in line
+    void complete(BookingToken token){
+        rooms.get(token.show.showId).finished.incrementAndGet();
+    }
+
+    // gives a token back after a booking that failed, e.g. the chosen seat was taken meanwhile
+    void restore(BookingToken token){
+        if(token.isExpired()) complete(token);
+        else issued.putIfAbsent(token.tokenId,token);
+    }
+
+    private void sweep(){
+        for(BookingToken token:issued.values()){
+            if(token.isExpired() && issued.remove(token.tokenId,token)) complete(token);
+        }
+        long now=System.currentTimeMillis();
+        for(WaitingRoom room:rooms.values()){
+            long admittedUpTo=room.admittedUpTo.get();
+            for(QueueTicket ticket:room.uncollected.values()){
+                if(ticket.sequence>admittedUpTo) continue;
+                // an admitted caller gets as long to collect its token as the token itself would last
+                if(ticket.admittedAt==0) ticket.admittedAt=now;
+                else if(now-ticket.admittedAt>tokenTtlMillis) lapse(room,ticket);
+            }
+        }
+    }
+
+    private void lapse(WaitingRoom room, QueueTicket ticket){
+        synchronized (ticket){
+            if(ticket.token!=null || ticket.lapsed) return;
+            ticket.lapsed=true;
+        }
+        room.uncollected.remove(ticket.sequence);
+        room.finished.incrementAndGet();
+    }
+
+    void shutdown(){
+        sweeper.shutdownNow();
+    }
+}
+
+/* ======= Dynamic Pricing ======= */
+
+/*
+ Fares per show and seat type, moved by demand: how full that seat type is and how close the show is.
+ Prices are recomputed in the background from the inventory's occupancy counters and published as a
+ fresh array, so a booking reads one volatile field and one array slot and never scans seats.
+ */
+class DynamicPricing{
+    static final long HOUR=60*60*1000;
+
+    Map<String,Show> shows=new ConcurrentHashMap<>();
+    ScheduledExecutorService repricer=Executors.newSingleThreadScheduledExecutor(runnable->{
+        Thread thread=new Thread(runnable,"show-repricer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    DynamicPricing(long repriceMillis){
+        repricer.scheduleWithFixedDelay(this::repriceAll,repriceMillis,repriceMillis,TimeUnit.MILLISECONDS);
+    }
+
+    void track(Show show){
+        shows.put(show.showId,show);
+    }
+
+    void untrack(Show show){
+        shows.remove(show.showId);
+    }
+
+    double getPrice(Show show, SeatType seatType){
+        ShowSeatInventory inventory=show.openForSale();
+        double[] prices=inventory.prices;
+        if(prices==null){
+            // a show priced before anybody tracked it would otherwise keep its first fare forever
+            shows.putIfAbsent(show.showId,show);
+            prices=reprice(show,inventory);
+        }
+        return prices[seatType.ordinal()];
+    }
+
+    double[] reprice(Show show, ShowSeatInventory inventory){
+        double timeFactor=timeFactor(show.date.getTime()-System.currentTimeMillis());
+        double[] prices=new double[SeatType.values().length];
+        for(SeatType seatType:SeatType.values()){
+            double occupancy=inventory.occupancy(seatType);
+            // flat while the seat type is filling up, up to 50% more as the last seats go
+            double demandFactor=1+0.5*occupancy*occupancy;
+            prices[seatType.ordinal()]=Math.round(Pricing.getPrice(seatType)*demandFactor*timeFactor);
+        }
+        inventory.prices=prices;
+        return prices;
+    }
+
+    void shutdown(){
+        repricer.shutdownNow();
+    }
+
+    private void repriceAll(){
+        for(Show show:shows.values()){
+            // shows not yet on sale have no demand to price
+            ShowSeatInventory inventory=show.inventory;
+            if(inventory!=null) reprice(show,inventory);
+        }
+    }
+
+    private static double timeFactor(long millisToShow){
+        if(millisToShow>7*24*HOUR) return 0.9;
+        if(millisToShow>24*HOUR) return 1.0;
+        if(millisToShow>3*HOUR) return 1.1;
+        return 1.25;
+    }
+}
+
+/*
+ Measures what a price lookup adds to bookSeat: the lookup alone, then a bookSeat and cancel round trip
+ on two services, one on dynamic prices and a baseline on the fixed fare table.
+ Run with `java -cp <classes> PricingBenchmark [iterations]`.
+ */
+class PricingBenchmark{
+    static volatile double sink;
+
+    public static void main(String[] args){
+        int iterations=args.length>0 ? Integer.parseInt(args[0]) : 5_000_000;
+        List<Seat> seats=new ArrayList<>();
+        for(int i=0;i<1000;i++){
+            seats.add(new Seat("S"+i,SeatStatus.Available,SeatType.values()[i%3]));
+        }
+        Show show=new Show("PB1","Benchmark",2,new Date(System.currentTimeMillis()+5*DynamicPricing.HOUR));
+        new Hall("H1",seats,new ArrayList<>(Collections.singletonList(show)),25);
+        DynamicPricing pricing=new DynamicPricing(1000);
+        pricing.track(show);
+        for(int i=0;i<300;i++){
+            show.openForSale().tryTake(i);
+        }
+
+        for(int round=0;round<3;round++){
+            long start=System.nanoTime();
+            double total=0;
+            for(int i=0;i<iterations;i++){
+                total+=pricing.getPrice(show,SeatType.values()[i%3]);
+            }
+            sink=total;
+            double dynamicNs=(double)(System.nanoTime()-start)/iterations;
+
+            start=System.nanoTime();
+            total=0;
+            for(int i=0;i<iterations;i++){
+                total+=Pricing.getPrice(SeatType.values()[i%3]);
+            }
+            sink=total;
+            double staticNs=(double)(System.nanoTime()-start)/iterations;
+            System.out.printf("Round %d: dynamic lookup %.1f ns, static lookup %.1f ns%n",round,dynamicNs,staticNs);
         }
+
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        MovieBookingService dynamicService=new MovieBookingService();
+        MovieBookingService staticService=new MovieBookingService();
+        // the baseline: the fixed fare table, as before dynamic pricing
+        staticService.pricing.shutdown();
+        staticService.pricing=new DynamicPricing(Long.MAX_VALUE){
+            @Override
+            double getPrice(Show show, SeatType seatType){
+                return Pricing.getPrice(seatType);
+            }
+        };
+        double[] dynamicUs=new double[3];
+        double[] staticUs=new double[3];
+        for(int round=0;round<3;round++){
+            dynamicUs[round]=bookAndCancel(dynamicService,show,seats,Math.min(700,iterations));
+            staticUs[round]=bookAndCancel(staticService,show,seats,Math.min(700,iterations));
+        }
+        dynamicService.shutdown();
+        staticService.shutdown();
+        pricing.shutdown();
+        System.setOut(console);
+        for(int round=0;round<3;round++){
+            System.out.printf("Round %d: bookSeat plus cancel, dynamic %.1f us, static %.1f us per round trip%n",
+                    round,dynamicUs[round],staticUs[round]);
+        }
+    }
+
+    private static double bookAndCancel(MovieBookingService service, Show show, List<Seat> seats, int bookings){
+        User user=new User("U1","Bench");
+        long start=System.nanoTime();
+        for(int i=300;i<300+bookings;i++){
+            Booking booking=service.bookSeat(user,show,seats.get(i).seatType,seats.get(i),PaymentMode.UPI);
+            service.cancelBooking(booking.bookingId);
+        }
+        return (System.nanoTime()-start)/1e3/bookings;
+    }
+}
+
+/* ======= Notification Module ======= */
+
+enum NotificationType{
+    BookingConfirmed, BookingCancelled
+}
+
+enum OverflowPolicy{
+    DROP, BLOCK
+}
+
+class Notification{
+    NotificationType type;
+    User user;
+    Booking booking;
+    long enqueuedAt;
+    int attempts;
+
+    Notification(NotificationType type, User user, Booking booking){
+        this.type=type;
+        this.user=user;
+        this.booking=booking;
+    }
+
+    // text is built on the sender thread, the booking path only pays for the enqueue
+    String message(){
+        String action=type==NotificationType.BookingConfirmed ? "confirmed" : "CANCELLED";
+        return "Booking "+action+" for "+user.userName+" Seat: "+booking.seatIds();
+    }
+}
+
+interface NotificationChannel{
+    void send(Notification notification);
+}
+
+class ConsoleChannel implements NotificationChannel{
+    @Override
+    public void send(Notification notification){
+        System.out.println(notification.message());
+    }
+}
+
+// local stand-in for tests: keeps what it was sent and can fail on purpose
+class StubChannel implements NotificationChannel{
+    Queue<Notification> sent=new java.util.concurrent.ConcurrentLinkedQueue<>();
+    volatile double failureRate;
+
+    @Override
+    public void send(Notification notification){
+        if(failureRate>0 && java.util.concurrent.ThreadLocalRandom.current().nextDouble()<failureRate){
+            throw new IllegalStateException("Stub channel failure");
+        }
+        sent.add(notification);
+    }
+}
+
+/*
+ Bounded lock-free multi-producer single-consumer ring. Producers claim a slot with a CAS on the tail and
+ publish into it; the single consumer reads slots in order and clears them before moving the head on.
+ Capacity is rounded up to a power of two.
+ */
+class MpscRingBuffer<T>{
+    AtomicReferenceArray<T> slots;
+    int mask;
+    AtomicLong tail=new AtomicLong();
+    volatile long head;
+
+    MpscRingBuffer(int capacity){
+        int size=Integer.highestOneBit(Math.max(2,capacity-1))<<1;
+        this.slots=new AtomicReferenceArray<>(size);
+        this.mask=size-1;
+    }
+
+    boolean offer(T item){
+        while(true){
+            long t=tail.get();
+            if(t-head>mask) return false;
+            if(tail.compareAndSet(t,t+1)){
+                slots.lazySet((int)(t&mask),item);
+                return true;
+            }
+        }
+    }
+
+    // consumer thread only
+    T poll(){
+        int slot=(int)(head&mask);
+        T item=slots.get(slot);
+        if(item==null) return null;
+        slots.lazySet(slot,null);
+        head=head+1;
+        return item;
+    }
+
+    long size(){
+        return Math.max(0,tail.get()-head);
+    }
+}
+
+/*
+ Booking threads enqueue and return. One dispatcher thread drains the ring in batches and hands each
+ batch to a fixed pool of senders, which deliver to every channel. The dispatcher only takes a batch once
+ a sender is free, so the ring is the only buffer and a slow channel fills it up. A failed delivery is
+ re-queued until it runs out of attempts. When the ring is full the overflow policy either drops the
+ notification or makes the producer wait for space. An idle dispatcher parks until a producer wakes it.
+ */
+class NotificationDispatcher{
+    MpscRingBuffer<Notification> queue;
+    List<NotificationChannel> channels;
+    OverflowPolicy overflowPolicy;
+    int batchSize;
+    int maxAttempts;
+    ExecutorService senders;
+    Semaphore freeSenders;
+    Thread dispatcher;
+    volatile boolean running=true;
+    volatile boolean dispatcherParked;
+
+    LongAdder delivered=new LongAdder();
+    LongAdder dropped=new LongAdder();
+    LongAdder failed=new LongAdder();
+    LongAdder totalLagNanos=new LongAdder();
+    AtomicLong maxLagNanos=new AtomicLong();
+    AtomicLong pendingBatches=new AtomicLong();
+
+    NotificationDispatcher(List<NotificationChannel> channels, int capacity, int batchSize, int senderThreads,
+                           int maxAttempts, OverflowPolicy overflowPolicy){
+        this.queue=new MpscRingBuffer<>(capacity);
+        this.channels=channels;
+        this.batchSize=batchSize;
+        this.maxAttempts=maxAttempts;
+        this.overflowPolicy=overflowPolicy;
+        this.senders=Executors.newFixedThreadPool(senderThreads,daemonThreads("notification-sender"));
+        this.freeSenders=new Semaphore(senderThreads);
+        this.dispatcher=daemonThreads("notification-dispatcher").newThread(this::dispatchLoop);
+        dispatcher.start();
+    }
+
+    boolean publish(Notification notification){
+        notification.enqueuedAt=System.nanoTime();
+        while(!queue.offer(notification)){
+            if(overflowPolicy==OverflowPolicy.DROP || !running){
+                dropped.increment();
+                return false;
+            }
+            LockSupport.parkNanos(50_000);
+        }
+        wakeDispatcher();
+        return true;
+    }
+
+    long getQueueDepth(){
+        return queue.size();
+    }
+
+    double getAverageLagMillis(){
+        long count=delivered.sum();
+        return count==0 ? 0 : totalLagNanos.sum()/1e6/count;
+    }
+
+    double getMaxLagMillis(){
+        return maxLagNanos.get()/1e6;
+    }
+
+    // delivers what is already queued, then stops the threads
+    void shutdown(){
+        running=false;
+        LockSupport.unpark(dispatcher);
+        try{
+            dispatcher.join();
+            senders.shutdown();
+            senders.awaitTermination(10,TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatchLoop(){
+        while(running || queue.size()>0 || pendingBatches.get()>0){
+            if(queue.size()==0){
+                awaitWork();
+                continue;
+            }
+            freeSenders.acquireUninterruptibly();
+            List<Notification> batch=new ArrayList<>(batchSize);
+            Notification next;
+            while(batch.size()<batchSize && (next=queue.poll())!=null){
+                batch.add(next);
+            }
+            if(batch.isEmpty()){
+                freeSenders.release();
+                continue;
+            }
+            pendingBatches.incrementAndGet();
+            senders.execute(()->deliver(batch));
+        }
+    }
+
+    // the flag is raised before the last look at the ring, so a producer either sees it or its item is seen
+    private void awaitWork(){
+        dispatcherParked=true;
+        if(queue.size()==0 && (running || pendingBatches.get()>0)) LockSupport.park(this);
+        dispatcherParked=false;
+    }
+
+    private void wakeDispatcher(){
+        if(dispatcherParked) LockSupport.unpark(dispatcher);
+    }
+
+    private void deliver(List<Notification> batch){
+        for(Notification notification:batch){
+            deliver(notification);
+        }
+        pendingBatches.decrementAndGet();
+        freeSenders.release();
+        wakeDispatcher();
+    }
+
+    // retries keep their original enqueue time so the lag metric includes the failed attempts;
+    // a sender never waits on a full ring, since the dispatcher may be waiting on that sender
+    private void deliver(Notification notification){
+        while(true){
+            try{
+                for(NotificationChannel channel:channels){
+                    channel.send(notification);
+                }
+                long lag=System.nanoTime()-notification.enqueuedAt;
+                delivered.increment();
+                totalLagNanos.add(lag);
+                maxLagNanos.accumulateAndGet(lag,Math::max);
+                return;
+            }
+            catch (RuntimeException e){
+                if(++notification.attempts>=maxAttempts){
+                    failed.increment();
+                    return;
+                }
+                if(queue.offer(notification)){
+                    wakeDispatcher();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory daemonThreads(String name){
+        return runnable->{
+            Thread thread=new Thread(runnable,name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
+
+class NotificationService{
+    NotificationDispatcher dispatcher;
+
+    NotificationService(){
+        this(new NotificationDispatcher(Collections.singletonList(new ConsoleChannel()),4096,64,4,3,OverflowPolicy.DROP));
+    }
+
+    NotificationService(NotificationDispatcher dispatcher){
+        this.dispatcher=dispatcher;
+    }
+
+    void sendBookingConfirmation(User user, Booking booking){
+        dispatcher.publish(new Notification(NotificationType.BookingConfirmed,user,booking));
+    }
+
+    void cancelBookingConfirmation(User user, Booking booking){
+        dispatcher.publish(new Notification(NotificationType.BookingCancelled,user,booking));
+    }
+
+    void shutdown(){
+        dispatcher.shutdown();
+    }
+}
+
+class SearchService{
+    ShowSearchIndex index=new ShowSearchIndex();
+
+    List<Show> searchShows(List<Show> shows, String showName, Date date){
+        List<Show> res=new ArrayList<>();
+        for(Show show:shows){
+            if(show.showName.equalsIgnoreCase(showName) && show.date.equals(date)){
+                res.add(show);
+            }
+        }
+        return res;
+    }
+
+    List<Show> searchShows(String showName, Date date){
+        return index.search(showName,date);
+    }
+
+    List<String> suggestShowNames(String prefix, int limit){
+        return index.suggest(prefix,limit);
+    }
+}
+
+/*
+ In-memory catalog index, updated as shows are added or removed:
+ - normalized name -> day -> shows, for exact searches
+ - day -> shows, for "what is on" listings
+ - a trie over normalized names for type-ahead
+ Dates are matched by calendar day in the system zone rather than by exact timestamp.
+ */
+class ShowSearchIndex{
+    static class TrieNode{
+        TreeMap<Character,TrieNode> children=new TreeMap<>();
+        // display name of the shows ending here, and how many indexed shows sit at or below this node
+        String name;
+        int showsAtNode;
+        int showsBelow;
+    }
+
+    ReadWriteLock lock=new ReentrantReadWriteLock();
+    // bumped whenever a show is added or removed
+    volatile long version;
+    Map<String,Map<Long,List<Show>>> byName=new HashMap<>();
+    Map<Long,List<Show>> byDay=new HashMap<>();
+    Map<String,Show> byId=new HashMap<>();
+    TrieNode root=new TrieNode();
+
+    void addShow(Show show){
+        String name=normalize(show.showName);
+        long day=dayOf(show.date);
+        lock.writeLock().lock();
+        try{
+            if(byId.putIfAbsent(show.showId,show)!=null) return;
+            byName.computeIfAbsent(name,k->new HashMap<>()).computeIfAbsent(day,k->new ArrayList<>()).add(show);
+            byDay.computeIfAbsent(day,k->new ArrayList<>()).add(show);
+
+            TrieNode node=root;
+            node.showsBelow++;
+            for(int i=0;i<name.length();i++){
+                node=node.children.computeIfAbsent(name.charAt(i),k->new TrieNode());
+                node.showsBelow++;
+            }
+            node.name=show.showName;
+            node.showsAtNode++;
+            version++;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void removeShow(Show show){
+        String name=normalize(show.showName);
+        long day=dayOf(show.date);
+        lock.writeLock().lock();
+        try{
+            if(!byId.remove(show.showId,show)) return;
+            version++;
+            Map<Long,List<Show>> days=byName.get(name);
+            removeFromBucket(days,day,show);
+            if(days.isEmpty()) byName.remove(name);
+            removeFromBucket(byDay,day,show);
+
+            // drop trie branches that no longer lead to any show
+            TrieNode node=root;
+            node.showsBelow--;
+            for(int i=0;i<name.length();i++){
+                TrieNode child=node.children.get(name.charAt(i));
+                if(--child.showsBelow==0){
+                    node.children.remove(name.charAt(i));
+                    return;
+                }
+                node=child;
+            }
+            node.showsAtNode--;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    List<Show> search(String showName, Date date){
+        lock.readLock().lock();
+        try{
+            Map<Long,List<Show>> days=byName.get(normalize(showName));
+            if(days==null) return new ArrayList<>();
+            List<Show> shows=days.get(dayOf(date));
+            return shows==null ? new ArrayList<>() : new ArrayList<>(shows);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<Show> showsOn(Date date){
+        lock.readLock().lock();
+        try{
+            List<Show> shows=byDay.get(dayOf(date));
+            return shows==null ? new ArrayList<>() : new ArrayList<>(shows);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Show getShow(String showId){
+        lock.readLock().lock();
+        try{
+            return byId.get(showId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // show names starting with the prefix, alphabetically; empty branches are pruned so this visits few nodes
+    List<String> suggest(String prefix, int limit){
+        String key=normalize(prefix);
+        lock.readLock().lock();
+        try{
+            TrieNode node=root;
+            for(int i=0;i<key.length() && node!=null;i++){
+                node=node.children.get(key.charAt(i));
+            }
+            List<String> res=new ArrayList<>();
+            if(node!=null) collect(node,res,limit);
+            return res;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void collect(TrieNode node, List<String> res, int limit){
+        if(res.size()>=limit) return;
+        if(node.showsAtNode>0) res.add(node.name);
+        for(TrieNode child:node.children.values()){
+            if(res.size()>=limit) return;
+            collect(child,res,limit);
+        }
+    }
+
+    private static void removeFromBucket(Map<Long,List<Show>> buckets, long day, Show show){
+        List<Show> shows=buckets.get(day);
+        shows.remove(show);
+        if(shows.isEmpty()) buckets.remove(day);
+    }
+
+    static String normalize(String name){
+        return name.trim().replaceAll("\\s+"," ").toLowerCase(Locale.ROOT);
+    }
+
+    static long dayOf(Date date){
+        return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+}
+
+/* ======= Browse Cache ======= */
+
+/*
+ Bounded segmented LRU. New entries start in the probation segment and move to the protected segment
+ on their second hit, so a burst of one-off lookups cannot flush the popular entries. Entries demoted
+ from protected go back to probation; evictions always come from the probation tail. The cache is
+ split into stripes by key hash, each with its own segments and lock, so concurrent browse lookups
+ only contend when they land on the same stripe.
+ */
+class SegmentedLruCache<K,V>{
+    static final int STRIPES=16;
+
+    Stripe<K,V>[] stripes;
+    LongAdder hits=new LongAdder();
+    LongAdder misses=new LongAdder();
+    LongAdder evictions=new LongAdder();
+
+    @SuppressWarnings({"rawtypes","unchecked"})
+    SegmentedLruCache(int capacity){
+        int count=Math.min(STRIPES,Integer.highestOneBit(Math.max(1,capacity/8)));
+        this.stripes=new Stripe[count];
+        for(int i=0;i<count;i++){
+            // spread the remainder so the stripes add up to the requested capacity
+            stripes[i]=new Stripe<>(capacity/count+(i<capacity%count ? 1 : 0),evictions);
+        }
+    }
+
+    // a stale value counts as a miss and is dropped, it is neither promoted nor kept around
+    V get(K key, Predicate<V> isCurrent){
+        V value=stripeOf(key).get(key,isCurrent);
+        if(value==null) misses.increment();
+        else hits.increment();
+        return value;
+    }
+
+    void put(K key, V value){
+        stripeOf(key).put(key,value);
+    }
+
+    void invalidate(K key){
+        stripeOf(key).invalidate(key);
+    }
+
+    int size(){
+        int size=0;
+        for(Stripe<K,V> stripe:stripes){
+            size+=stripe.size();
+        }
+        return size;
+    }
+
+    double hitRate(){
+        long h=hits.sum();
+        long total=h+misses.sum();
+        return total==0 ? 0 : (double)h/total;
+    }
+
+    long getEvictionCount(){
+        return evictions.sum();
+    }
+
+    private Stripe<K,V> stripeOf(K key){
+        int hash=key.hashCode();
+        return stripes[(hash^(hash>>>16))&(stripes.length-1)];
+    }
+
+    static class Stripe<K,V>{
+        int probationCapacity;
+        int protectedCapacity;
+        LinkedHashMap<K,V> probation=new LinkedHashMap<>(16,0.75f,true);
+        LinkedHashMap<K,V> protectedSegment=new LinkedHashMap<>(16,0.75f,true);
+        LongAdder evictions;
+
+        Stripe(int capacity, LongAdder evictions){
+            this.protectedCapacity=Math.max(1,capacity*4/5);
+            this.probationCapacity=Math.max(1,capacity-protectedCapacity);
+            this.evictions=evictions;
+        }
+
+        synchronized V get(K key, Predicate<V> isCurrent){
+            V value=protectedSegment.get(key);
+            if(value!=null){
+                if(isCurrent.test(value)) return value;
+                protectedSegment.remove(key);
+                return null;
+            }
+            value=probation.remove(key);
+            if(value==null || !isCurrent.test(value)) return null;
+            promote(key,value);
+            return value;
+        }
+
+        synchronized void put(K key, V value){
+            if(protectedSegment.containsKey(key)){
+                protectedSegment.put(key,value);
+                return;
+            }
+            probation.put(key,value);
+            evictProbation();
+        }
+
+        synchronized void invalidate(K key){
+            if(protectedSegment.remove(key)==null) probation.remove(key);
+        }
+
+        synchronized int size(){
+            return probation.size()+protectedSegment.size();
+        }
+
+        private void promote(K key, V value){
+            protectedSegment.put(key,value);
+            if(protectedSegment.size()>protectedCapacity){
+                Iterator<Map.Entry<K,V>> eldest=protectedSegment.entrySet().iterator();
+                Map.Entry<K,V> demoted=eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(),demoted.getValue());
+                evictProbation();
+            }
+        }
+
+        private void evictProbation(){
+            while(probation.size()>probationCapacity){
+                Iterator<K> eldest=probation.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
+
+// immutable picture of a show's seats; holds show as Booked
+class SeatMapView{
+    String showId;
+    long version;
+    SeatStatus[] statuses;
+
+    SeatMapView(String showId, long version, SeatStatus[] statuses){
+        this.showId=showId;
+        this.version=version;
+        this.statuses=statuses;
+    }
+}
+
+class CachedShows{
+    long catalogVersion;
+    List<Show> shows;
+
+    CachedShows(long catalogVersion, List<Show> shows){
+        this.catalogVersion=catalogVersion;
+        this.shows=Collections.unmodifiableList(shows);
+    }
+}
+
+/*
+ Read-through cache for browse traffic. Every entry remembers the version it was built from: seat maps
+ the show inventory's version, listings and search results the catalog version. An entry is served only
+ while that version is current, so bookings, cancellations and expired holds invalidate exactly the
+ seat maps they touched without any explicit eviction calls.
+ */
+class BrowseCache{
+    ShowSearchIndex index;
+    SegmentedLruCache<String,SeatMapView> seatMaps;
+    SegmentedLruCache<String,CachedShows> listings;
+    SegmentedLruCache<String,CachedShows> searches;
+
+    BrowseCache(ShowSearchIndex index, int seatMapCapacity, int listingCapacity){
+        this.index=index;
+        this.seatMaps=new SegmentedLruCache<>(seatMapCapacity);
+        this.listings=new SegmentedLruCache<>(listingCapacity);
+        this.searches=new SegmentedLruCache<>(listingCapacity);
+    }
+
+    SeatMapView getSeatMap(Show show){
+        ShowSeatInventory inventory=show.openForSale();
+        long version=inventory.version.get();
+        SeatMapView view=seatMaps.get(show.showId,cached->cached.version==version);
+        if(view!=null) return view;
+
+        // built after reading the version, so at worst the entry is newer than its label and gets rebuilt once
+        List<Seat> seats=show.hall.seats;
+        SeatStatus[] statuses=new SeatStatus[seats.size()];
+        for(int i=0;i<statuses.length;i++){
+            Seat seat=seats.get(i);
+            if(seat.seatStatus==SeatStatus.InMaintainance) statuses[i]=SeatStatus.InMaintainance;
+            else statuses[i]=inventory.isTaken(i) ? SeatStatus.Booked : SeatStatus.Available;
+        }
+        view=new SeatMapView(show.showId,version,statuses);
+        seatMaps.put(show.showId,view);
+        return view;
+    }
+
+    List<Show> getShowListing(Theater theater){
+        long version=index.version;
+        CachedShows cached=listings.get(theater.theaterId,entry->entry.catalogVersion==version);
+        if(cached!=null) return cached.shows;
+
+        List<Show> shows=new ArrayList<>();
+        for(Hall hall:theater.halls){
+            shows.addAll(hall.shows);
+        }
+        cached=new CachedShows(version,shows);
+        listings.put(theater.theaterId,cached);
+        return cached.shows;
+    }
+
+    List<Show> searchShows(String showName, Date date){
+        long version=index.version;
+        String key=ShowSearchIndex.normalize(showName)+"|"+ShowSearchIndex.dayOf(date);
+        CachedShows cached=searches.get(key,entry->entry.catalogVersion==version);
+        if(cached!=null) return cached.shows;
+
+        cached=new CachedShows(version,index.search(showName,date));
+        searches.put(key,cached);
+        return cached.shows;
+    }
+
+    void printStats(){
+        System.out.println("Seat maps: hit rate "+seatMaps.hitRate()+", evictions "+seatMaps.getEvictionCount());
+        System.out.println("Listings: hit rate "+listings.hitRate()+", evictions "+listings.getEvictionCount());
+        System.out.println("Searches: hit rate "+searches.hitRate()+", evictions "+searches.getEvictionCount());
+    }
+}
+
+/* ======= Booking Store ======= */
+
+/*
+ Open-addressing long -> long hash table kept off the Java heap. Each slot is 16 bytes (key, value),
+ key 0 marks an empty slot, collisions probe linearly and deletes shift the following entries back
+ so no tombstones build up. Slots are numbered with longs and spread over 64MB pages, since a single
+ direct buffer stops at 2GB. Not thread-safe, callers synchronize.
+ */
+class OffHeapLongIndex{
+    static final int SLOT_SIZE=16;
+    static final int PAGE_SHIFT=22;
+    static final long PAGE_SLOTS=1L<<PAGE_SHIFT;
+
+    ByteBuffer[] pages;
+    long mask;
+    long size;
+
+    OffHeapLongIndex(long initialCapacity){
+        allocate(Long.highestOneBit(Math.max(16,initialCapacity-1))<<1);
+    }
+
+    long get(long key){
+        for(long slot=home(key);;slot=(slot+1)&mask){
+            long current=keyAt(slot);
+            if(current==0) return -1;
+            if(current==key) return valueAt(slot);
+        }
+    }
+
+    void put(long key, long value){
+        if(key<=0) throw new IllegalArgumentException("Keys must be positive");
+        if((size+1)*2>mask+1) resize();
+        for(long slot=home(key);;slot=(slot+1)&mask){
+            long current=keyAt(slot);
+            if(current==0 || current==key){
+                if(current==0) size++;
+                write(slot,key,value);
+                return;
+            }
+        }
+    }
+
+    boolean remove(long key){
+        long slot=home(key);
+        while(true){
+            long current=keyAt(slot);
+            if(current==0) return false;
+            if(current==key) break;
+            slot=(slot+1)&mask;
+        }
+
+        long hole=slot;
+        for(long next=(hole+1)&mask;keyAt(next)!=0;next=(next+1)&mask){
+            long wanted=home(keyAt(next));
+            // an entry may move back into the hole only if the hole lies between its home and where it sits
+            boolean movable=hole<=next ? (wanted<=hole || wanted>next) : (wanted<=hole && wanted>next);
+            if(movable){
+                write(hole,keyAt(next),valueAt(next));
+                hole=next;
+            }
+        }
+        write(hole,0,0);
+        size--;
+        return true;
+    }
+
+    long size(){
+        return size;
+    }
+
+    void forEach(java.util.function.BiConsumer<Long,Long> action){
+        for(long slot=0;slot<=mask;slot++){
+            long key=keyAt(slot);
+            if(key!=0) action.accept(key,valueAt(slot));
+        }
+    }
+
+    private void resize(){
+        ByteBuffer[] old=pages;
+        long oldSlots=mask+1;
+        allocate(oldSlots*2);
+        size=0;
+        for(long slot=0;slot<oldSlots;slot++){
+            ByteBuffer page=old[(int)(slot>>>PAGE_SHIFT)];
+            int at=(int)(slot&(PAGE_SLOTS-1))*SLOT_SIZE;
+            long key=page.getLong(at);
+            if(key!=0) put(key,page.getLong(at+8));
+        }
+    }
+
+    private void allocate(long slots){
+        long pageSlots=Math.min(slots,PAGE_SLOTS);
+        this.pages=new ByteBuffer[(int)(slots/pageSlots)];
+        for(int i=0;i<pages.length;i++){
+            pages[i]=ByteBuffer.allocateDirect((int)(pageSlots*SLOT_SIZE));
+        }
+        this.mask=slots-1;
+    }
+
+    private long home(long key){
+        long h=key*0x9E3779B97F4A7C15L;
+        return (h^(h>>>32))&mask;
+    }
+
+    private ByteBuffer pageOf(long slot){
+        return pages[(int)(slot>>>PAGE_SHIFT)];
+    }
+
+    private static int offsetOf(long slot){
+        return (int)(slot&(PAGE_SLOTS-1))*SLOT_SIZE;
+    }
+
+    private long keyAt(long slot){
+        return pageOf(slot).getLong(offsetOf(slot));
+    }
+
+    private long valueAt(long slot){
+        return pageOf(slot).getLong(offsetOf(slot)+8);
+    }
+
+    private void write(long slot, long key, long value){
+        ByteBuffer page=pageOf(slot);
+        int at=offsetOf(slot);
+        page.putLong(at,key);
+        page.putLong(at+8,value);
+    }
+}
+
+/*
+ Durable booking store: an append-only event log over memory-mapped segments, plus an off-heap index
+ from booking id to the offset of its Booked event. Bookings live on disk, not on the heap; a Booking
+ object is decoded from the log only when somebody asks for it.
+
+ Record: | length 4 | type 1 | booking id 8 | timestamp 8 | payload |
+ Booked payload: | payment mode 1 | show id | user id | user name | seat count 2 | seat index 4 ... |
+ with strings stored as a 2 byte length followed by UTF-8. The length goes in last, so a zero length
+ marks the end of the log and a torn write is never read back. A record never spans segments, the
+ unused tail of a segment is marked with length -1.
+
+ Snapshots are built off the booking path: the snapshotter keeps its own copy of the index and brings it
+ up to date by replaying the log up to a position captured under the lock, so bookings only ever wait
+ for that capture, never for the index walk or the disk.
+ */
+class BookingStore{
+    static final byte BOOKED=1;
+    static final byte CANCELLED=2;
+    static final int SKIP=-1;
+    static final int HEADER_SIZE=4+1+8+8;
+    static final long SEGMENT_SIZE=64L<<20;
+    static final int SNAPSHOT_MAGIC=0x424B5332;
+    static final int SNAPSHOT_CHUNK=64<<10;
+
+    FileChannel channel;
+    Path snapshotFile;
+    List<MappedByteBuffer> segments=new ArrayList<>();
+    long position;
+    OffHeapLongIndex index=new OffHeapLongIndex(1<<16);
+    AtomicLong lastBookingId=new AtomicLong();
+    ScheduledExecutorService snapshotter;
+    // the snapshotter's own index and how far into the log it has been replayed, guarded by snapshotLock
+    Object snapshotLock=new Object();
+    OffHeapLongIndex snapshotIndex;
+    long snapshotPosition;
+
+    BookingStore(Path dir){
+        try{
+            Files.createDirectories(dir);
+            this.channel=FileChannel.open(dir.resolve("bookings.log"),
+                    StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+            this.snapshotFile=dir.resolve("bookings.snapshot");
+            for(long base=0;base<channel.size();base+=SEGMENT_SIZE){
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE,base,SEGMENT_SIZE));
+            }
+            if(segments.isEmpty()) segments.add(channel.map(FileChannel.MapMode.READ_WRITE,0,SEGMENT_SIZE));
+            recover();
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long nextBookingId(){
+        return lastBookingId.incrementAndGet();
+    }
+
+    synchronized void appendBooked(Booking booking){
+        byte[] showId=booking.show.showId.getBytes(StandardCharsets.UTF_8);
+        byte[] userId=booking.user.userId.getBytes(StandardCharsets.UTF_8);
+        byte[] userName=booking.user.userName.getBytes(StandardCharsets.UTF_8);
+        int payload=1+2+showId.length+2+userId.length+2+userName.length+2+4*booking.seats.size();
+
+        long offset=reserve(HEADER_SIZE+payload);
+        ByteBuffer segment=segmentAt(offset);
+        int at=(int)(offset%SEGMENT_SIZE)+HEADER_SIZE;
+        segment.put(at++,(byte)booking.paymentMode.ordinal());
+        at=putString(segment,at,showId);
+        at=putString(segment,at,userId);
+        at=putString(segment,at,userName);
+        segment.putShort(at,(short)booking.seats.size());
+        at+=2;
+        for(Seat seat:booking.seats){
+            segment.putInt(at,seat.index);
+            at+=4;
+        }
+        commit(offset,BOOKED,booking.bookingId,HEADER_SIZE+payload);
+        index.put(booking.bookingId,offset);
+    }
+
+    // false if the booking does not exist or was already cancelled
+    synchronized boolean appendCancelled(long bookingId){
+        if(index.get(bookingId)<0) return false;
+        long offset=reserve(HEADER_SIZE);
+        commit(offset,CANCELLED,bookingId,HEADER_SIZE);
+        index.remove(bookingId);
+        return true;
+    }
+
+    // shows are looked up through the resolver, null if the booking is unknown or its show is not loaded
+    synchronized Booking get(long bookingId, Function<String,Show> shows){
+        long offset=index.get(bookingId);
+        return offset<0 ? null : decode(offset,shows);
+    }
+
+    synchronized long size(){
+        return index.size();
+    }
+
+    // decodes one live booking at a time, so recovery never holds them all on the heap; returns how many were visited
+    synchronized long forEachLive(Function<String,Show> shows, java.util.function.Consumer<Booking> action){
+        long[] count={0};
+        index.forEach((bookingId,offset)->{
+            Booking booking=decode(offset,shows);
+            if(booking!=null){
+                action.accept(booking);
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    void scheduleSnapshots(long intervalMillis){
+        snapshotter=Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread=new Thread(runnable,"booking-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(this::writeSnapshot,intervalMillis,intervalMillis,TimeUnit.MILLISECONDS);
+    }
+
+    // index entries and the log position they cover; recovery loads this and replays only the tail.
+    // Written through a small buffer, however large the index is
+    void writeSnapshot(){
+        long upTo;
+        long lastId;
+        List<MappedByteBuffer> mapped;
+        synchronized (this){
+            upTo=position;
+            lastId=lastBookingId.get();
+            mapped=new ArrayList<>(segments);
+        }
+        synchronized (snapshotLock){
+            // records below the captured position are complete and never change again
+            for(MappedByteBuffer segment:mapped){
+                segment.force();
+            }
+            if(snapshotIndex==null){
+                snapshotIndex=new OffHeapLongIndex(1<<16);
+                snapshotPosition=loadSnapshot(snapshotIndex);
+            }
+            snapshotPosition=replay(mapped,snapshotPosition,upTo,snapshotIndex);
+
+            Path tmp=snapshotFile.resolveSibling(snapshotFile.getFileName()+".tmp");
+            try(FileChannel out=FileChannel.open(tmp,StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.WRITE)){
+                ByteBuffer buffer=ByteBuffer.allocate(SNAPSHOT_CHUNK);
+                buffer.putInt(SNAPSHOT_MAGIC).putLong(snapshotPosition).putLong(lastId).putLong(snapshotIndex.size());
+                snapshotIndex.forEach((bookingId,offset)->{
+                    if(buffer.remaining()<16) drain(buffer,out);
+                    buffer.putLong(bookingId).putLong(offset);
+                });
+                drain(buffer,out);
+                out.force(true);
+                Files.move(tmp,snapshotFile,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // mapped pages survive a process crash on their own, this pushes them to the disk
+    synchronized void flush(){
+        for(MappedByteBuffer segment:segments){
+            segment.force();
+        }
+    }
+
+    synchronized void close(){
+        if(snapshotter!=null) snapshotter.shutdownNow();
+        flush();
+        try{
+            channel.close();
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void recover(){
+        long from=loadSnapshot(index);
+        position=replay(segments,from,Long.MAX_VALUE,index);
+    }
+
+    // loads the snapshot's entries into `into` and returns the log position they cover, 0 without a snapshot
+    private long loadSnapshot(OffHeapLongIndex into){
+        if(!Files.exists(snapshotFile)) return 0;
+        try(FileChannel in=FileChannel.open(snapshotFile,StandardOpenOption.READ)){
+            ByteBuffer snapshot=ByteBuffer.allocate(SNAPSHOT_CHUNK).flip();
+            fill(snapshot,in,4+8+8+8);
+            if(snapshot.getInt()!=SNAPSHOT_MAGIC) throw new IllegalStateException("Corrupt booking snapshot");
+            long from=snapshot.getLong();
+            lastBookingId.accumulateAndGet(snapshot.getLong(),Math::max);
+            long count=snapshot.getLong();
+            for(long i=0;i<count;i++){
+                if(snapshot.remaining()<16) fill(snapshot,in,16);
+                into.put(snapshot.getLong(),snapshot.getLong());
+            }
+            return from;
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // applies the records in [from, upTo) to `into`, stopping early at the end of the log; returns where it stopped
+    private long replay(List<MappedByteBuffer> mapped, long from, long upTo, OffHeapLongIndex into){
+        long offset=from;
+        while(offset<upTo && offset/SEGMENT_SIZE<mapped.size()){
+            ByteBuffer segment=mapped.get((int)(offset/SEGMENT_SIZE));
+            int at=(int)(offset%SEGMENT_SIZE);
+            int length=at+4<=SEGMENT_SIZE ? segment.getInt(at) : SKIP;
+            if(length==0) break;
+            if(length==SKIP){
+                offset=(offset/SEGMENT_SIZE+1)*SEGMENT_SIZE;
+                continue;
+            }
+
+            long bookingId=segment.getLong(at+5);
+            if(segment.get(at+4)==BOOKED) into.put(bookingId,offset);
+            else into.remove(bookingId);
+            lastBookingId.accumulateAndGet(bookingId,Math::max);
+            offset+=length;
+        }
+        return offset;
+    }
+
+    private long reserve(int length){
+        if(length>SEGMENT_SIZE) throw new IllegalArgumentException("Booking too large");
+        int at=(int)(position%SEGMENT_SIZE);
+        if(at+length>SEGMENT_SIZE){
+            if(at+4<=SEGMENT_SIZE) segmentAt(position).putInt(at,SKIP);
+            position=(position/SEGMENT_SIZE+1)*SEGMENT_SIZE;
+        }
+        if(position/SEGMENT_SIZE>=segments.size()){
+            try{
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE,segments.size()*SEGMENT_SIZE,SEGMENT_SIZE));
+            }
+            catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+        long offset=position;
+        position+=length;
+        return offset;
+    }
+
+    private void commit(long offset, byte type, long bookingId, int length){
+        ByteBuffer segment=segmentAt(offset);
+        int at=(int)(offset%SEGMENT_SIZE);
+        segment.put(at+4,type);
+        segment.putLong(at+5,bookingId);
+        segment.putLong(at+13,System.currentTimeMillis());
+        segment.putInt(at,length);
+    }
+
+    private Booking decode(long offset, Function<String,Show> shows){
+        ByteBuffer segment=segmentAt(offset);
+        int at=(int)(offset%SEGMENT_SIZE);
+        long bookingId=segment.getLong(at+5);
+        at+=HEADER_SIZE;
+        PaymentMode paymentMode=PaymentMode.values()[segment.get(at++)];
+        String showId=getString(segment,at);
+        at+=2+segment.getShort(at);
+        String userId=getString(segment,at);
+        at+=2+segment.getShort(at);
+        String userName=getString(segment,at);
+        at+=2+segment.getShort(at);
+
+        Show show=shows.apply(showId);
+        if(show==null) return null;
+        int seatCount=segment.getShort(at);
+        at+=2;
+        List<Seat> seats=new ArrayList<>(seatCount);
+        for(int i=0;i<seatCount;i++){
+            seats.add(show.hall.seats.get(segment.getInt(at)));
+            at+=4;
+        }
+        return new Booking(bookingId,new User(userId,userName),show,seats,paymentMode);
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel out){
+        buffer.flip();
+        try{
+            while(buffer.hasRemaining()) out.write(buffer);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    // tops the buffer up from the channel until at least `needed` bytes are readable
+    private static void fill(ByteBuffer buffer, FileChannel in, int needed) throws IOException{
+        buffer.compact();
+        while(buffer.position()<needed){
+            if(in.read(buffer)<0) throw new IllegalStateException("Truncated booking snapshot");
+        }
+        buffer.flip();
+    }
+
+    private ByteBuffer segmentAt(long offset){
+        return segments.get((int)(offset/SEGMENT_SIZE));
+    }
+
+    private static int putString(ByteBuffer segment, int at, byte[] value){
+        if(value.length>Short.MAX_VALUE) throw new IllegalArgumentException("Value too long");
+        segment.putShort(at,(short)value.length);
+        for(int i=0;i<value.length;i++){
+            segment.put(at+2+i,value[i]);
+        }
+        return at+2+value.length;
+    }
+
+    private static String getString(ByteBuffer segment, int at){
+        byte[] value=new byte[segment.getShort(at)];
+        for(int i=0;i<value.length;i++){
+            value[i]=segment.get(at+2+i);
+        }
+        return new String(value,StandardCharsets.UTF_8);
+    }
+}
+
+class MovieBookingService{
+    static final long HOLD_TTL_MILLIS=5*60*1000;
+    static final long TOKEN_TTL_MILLIS=2*60*1000;
+    static final long REPRICE_MILLIS=30*1000;
+    static final long SNAPSHOT_MILLIS=60*1000;
+
+    NotificationService notificationService;
+    SearchService searchService;
+    BookingEngine bookingEngine;
+    BrowseCache browseCache;
+    BookingStore bookingStore;
+    AdmissionController admissionController;
+    DynamicPricing pricing;
+    // every show that was ever listed or booked, so stored bookings still resolve once a show is unlisted
+    Map<String,Show> knownShows=new ConcurrentHashMap<>();
+    // set when the store lives in a directory of our own, removed again on shutdown
+    Path temporaryDir;
+
+    public MovieBookingService(){
+        this(temporaryStore());
+        this.temporaryDir=bookingStore.snapshotFile.getParent();
+    }
+
+    public MovieBookingService(Path storeDir){
+        this.notificationService=new NotificationService();
+        this.searchService=new SearchService();
+        this.bookingEngine=new BookingEngine();
+        this.browseCache=new BrowseCache(searchService.index,10_000,1_000);
+        this.bookingStore=new BookingStore(storeDir);
+        bookingStore.scheduleSnapshots(SNAPSHOT_MILLIS);
+        this.admissionController=new AdmissionController(TOKEN_TTL_MILLIS);
+        this.pricing=new DynamicPricing(REPRICE_MILLIS);
+    }
+
+    private static Path temporaryStore(){
+        try{
+            return Files.createTempDirectory("bookings");
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // once the catalog is loaded, puts the seats of every stored booking back into the show inventories
+    public long recoverBookings(){
+        return bookingStore.forEachLive(knownShows::get,booking->{
+            List<Seat> sorted=new ArrayList<>(booking.seats);
+            sorted.sort(Comparator.comparingInt((Seat seat)->seat.index));
+            booking.show.openForSale().tryTakeAll(sorted);
+        });
+    }
+
+    public Booking getBooking(long bookingId){
+        return bookingStore.get(bookingId,knownShows::get);
+    }
+
+    public List<Show> searchShows(List<Show> shows, String showName, Date date){
+        return searchService.searchShows(shows,showName,date);
+    }
+
+    public void addShow(Show show){
+        knownShows.put(show.showId,show);
+        searchService.index.addShow(show);
+        pricing.track(show);
+    }
+
+    public void removeShow(Show show){
+        searchService.index.removeShow(show);
+        pricing.untrack(show);
+    }
+
+    public double getPrice(Show show, SeatType seatType){
+        return pricing.getPrice(show,seatType);
+    }
+
+    public List<Show> searchShows(String showName, Date date){
+        return browseCache.searchShows(showName,date);
+    }
+
+    public SeatMapView getSeatMap(Show show){
+        return browseCache.getSeatMap(show);
+    }
+
+    public List<Show> getShowListing(Theater theater){
+        return browseCache.getShowListing(theater);
+    }
+
+    public List<String> suggestShowNames(String prefix, int limit){
+        return searchService.suggestShowNames(prefix,limit);
+    }
+
+    public List<Seat> getAvailableSeats(Show show, SeatType seatType){
+        return show.openForSale().availableSeats(seatType);
+    }
+
+    public int getAvailableSeatCount(Show show, SeatType seatType){
+        return show.openForSale().availableCount(seatType);
+    }
+
+    // from now on the show can only be booked through its waiting room
+    public void enableWaitingRoom(Show show, double admitsPerSecond, int burst){
+        admissionController.open(show,admitsPerSecond,burst);
+    }
+
+    public QueueTicket joinQueue(User user, Show show){
+        if(!admissionController.isQueued(show)){
+            System.out.println("Show has no waiting room, book it directly");
+            return null;
+        }
+        QueueTicket ticket=admissionController.join(user,show);
+        if(ticket==null) System.out.println("Show is sold out");
+        return ticket;
+    }
+
+    public BookingToken pollQueue(QueueTicket ticket){
+        return admissionController.poll(ticket);
+    }
+
+    public long getQueuePosition(QueueTicket ticket){
+        return admissionController.positionOf(ticket);
+    }
+
+    public boolean isSoldOut(Show show){
+        return show.openForSale().isSoldOut();
+    }
+
+    public Booking bookSeat(BookingToken token, User user, Show show, SeatType seatType, Seat seat, PaymentMode paymentMode){
+        if(!admissionController.redeem(token,user,show)){
+            System.out.println("Booking token is not valid");
+            return null;
+        }
+        Booking booking=reserveSeat(user,show,seatType,seat,paymentMode);
+        if(booking==null) admissionController.restore(token);
+        else admissionController.complete(token);
+        return booking;
+    }
+
+    public Booking bookSeat(User user, Show show, SeatType seatType, Seat seat, PaymentMode paymentMode){
+        if(admissionController.isQueued(show)){
+            System.out.println("Join the queue to book this show");
+            return null;
+        }
+        return reserveSeat(user,show,seatType,seat,paymentMode);
+    }
+
+    private Booking reserveSeat(User user, Show show, SeatType seatType, Seat seat, PaymentMode paymentMode){
+        if(show.openForSale().isSoldOut()){
+            System.out.println("Show is sold out");
+            return null;
+        }
+
+        SeatHold hold=bookingEngine.hold(show,Collections.singletonList(seat),HOLD_TTL_MILLIS);
+        if(hold==null){
+            System.out.println("Seat not available");
+            return null;
+        }
+
+        double price=pricing.getPrice(show,seatType);
+        long bookingId=bookingStore.nextBookingId();
+        Booking booking=new Booking(bookingId,user,show,seat,paymentMode);
+
+        // confirm before charging, so an expired hold never leaves the user paying for nothing
+        if(!bookingEngine.confirm(hold.holdId)){
+            System.out.println("Seat hold expired");
+            return null;
+        }
+
+        Payment payment=PaymentFactory.getPaymentMethod(paymentMode);
+        payment.pay(price);
+
+        knownShows.putIfAbsent(show.showId,show);
+        bookingStore.appendBooked(booking);
+        notificationService.sendBookingConfirmation(user,booking);
+        return booking;
+    }
+
+    // group booking for a show behind a waiting room: one token covers the whole group
+    public Booking bookSeats(BookingToken token, User user, Show show, List<Seat> seats, PaymentMode paymentMode){
+        if(!admissionController.redeem(token,user,show)){
+            System.out.println("Booking token is not valid");
+            return null;
+        }
+        Booking booking=reserveSeats(user,show,seats,paymentMode);
+        if(booking==null) admissionController.restore(token);
+        else admissionController.complete(token);
+        return booking;
+    }
+
+    public Booking bookSeats(User user, Show show, List<Seat> seats, PaymentMode paymentMode){
+        if(admissionController.isQueued(show)){
+            System.out.println("Join the queue to book this show");
+            return null;
+        }
+        return reserveSeats(user,show,seats,paymentMode);
+    }
+
+    // books every seat or none, with one payment and one notification for the whole group
+    private Booking reserveSeats(User user, Show show, List<Seat> seats, PaymentMode paymentMode){
+        if(seats.isEmpty()){
+            System.out.println("No seats selected");
+            return null;
+        }
+        if(show.openForSale().remaining.get()<seats.size()){
+            System.out.println("Seats not available");
+            return null;
+        }
+
+        SeatHold hold=bookingEngine.hold(show,seats,HOLD_TTL_MILLIS);
+        if(hold==null){
+            System.out.println("Seats not available");
+            return null;
+        }
+
+        double price=0;
+        for(Seat seat:seats){
+            price+=pricing.getPrice(show,seat.seatType);
+        }
+        long bookingId=bookingStore.nextBookingId();
+        Booking booking=new Booking(bookingId,user,show,new ArrayList<>(seats),paymentMode);
+
+        // confirm before charging, so an expired hold never leaves the user paying for nothing
+        if(!bookingEngine.confirm(hold.holdId)){
+            System.out.println("Seat hold expired");
+            return null;
+        }
+
+        Payment payment=PaymentFactory.getPaymentMethod(paymentMode);
+        payment.pay(price);
+
+        knownShows.putIfAbsent(show.showId,show);
+        bookingStore.appendBooked(booking);
+        notificationService.sendBookingConfirmation(user,booking);
+        return booking;
+    }
+
+    public List<Seat> findAdjacentSeats(Show show, int count, SeatType seatType){
+        return show.openForSale().findAdjacent(count,seatType);
+    }
+
+    void cancelBooking(long bookingId){
+        Booking booking=bookingStore.get(bookingId,knownShows::get);
+        // only the caller whose cancel event lands releases the seats, a concurrent second cancel fails here
+        if(booking==null || !bookingStore.appendCancelled(bookingId)){
+            System.out.println("Invalid Booking ID");
+            return;
+        }
+
+        bookingEngine.releaseSeats(booking.show,booking.seats);
+
+        notificationService.cancelBookingConfirmation(booking.user,booking);
+    }
+
+    void shutdown(){
+        notificationService.shutdown();
+        admissionController.shutdown();
+        pricing.shutdown();
+        bookingEngine.shutdown();
+        bookingStore.close();
+        if(temporaryDir!=null) deleteStore(temporaryDir);
+    }
+
+    private static void deleteStore(Path dir){
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(dir)){
+            for(Path file:files){
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+/*
+ Flash sale load simulation: many users rush a small show through its waiting room.
+ Run with `java -cp <classes> FlashSaleSimulation [users] [seats] [threads]`.
+ Reports throughput and fairness, i.e. how many seats went to the users who joined the queue first.
+ */
+class FlashSaleSimulation{
+    public static void main(String[] args) throws Exception{
+        int users=args.length>0 ? Integer.parseInt(args[0]) : 20_000;
+        int seatCount=args.length>1 ? Integer.parseInt(args[1]) : 500;
+        int threads=args.length>2 ? Integer.parseInt(args[2]) : 16;
+
+        List<Seat> seats=new ArrayList<>();
+        for(int i=0;i<seatCount;i++){
+            seats.add(new Seat("S"+i,SeatStatus.Available,SeatType.General));
+        }
+        Show show=new Show("FS1","Premiere",3,new Date());
+        new Hall("H1",seats,new ArrayList<>(Collections.singletonList(show)),32);
+
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        MovieBookingService service=new MovieBookingService();
+        service.addShow(show);
+        service.enableWaitingRoom(show,5_000,100);
+
+        AtomicLong requests=new AtomicLong();
+        AtomicLong soldOutRejects=new AtomicLong();
+        Map<Long,Booking> bookedBySequence=new ConcurrentHashMap<>();
+        ExecutorService pool=Executors.newFixedThreadPool(threads);
+        long start=System.nanoTime();
+        for(int t=0;t<threads;t++){
+            int first=t;
+            pool.submit(()->{
+                Random random=new Random(first);
+                List<QueueTicket> waiting=new ArrayList<>();
+                for(int u=first;u<users;u+=threads){
+                    requests.incrementAndGet();
+                    QueueTicket ticket=service.joinQueue(new User("U"+u,"User"+u),show);
+                    if(ticket==null) soldOutRejects.incrementAndGet();
+                    else waiting.add(ticket);
+                }
+                while(!waiting.isEmpty()){
+                    Iterator<QueueTicket> it=waiting.iterator();
+                    while(it.hasNext()){
+                        QueueTicket ticket=it.next();
+                        requests.incrementAndGet();
+                        if(service.isSoldOut(show)){
+                            soldOutRejects.incrementAndGet();
+                            it.remove();
+                            continue;
+                        }
+                        BookingToken token=service.pollQueue(ticket);
+                        if(ticket.lapsed){
+                            it.remove();
+                            continue;
+                        }
+                        if(token==null) continue;
+
+                        List<Seat> free=service.getAvailableSeats(show,SeatType.General);
+                        if(free.isEmpty()) continue;
+                        requests.incrementAndGet();
+                        Booking booking=service.bookSeat(token,ticket.user,show,SeatType.General,
+                                free.get(random.nextInt(free.size())),PaymentMode.UPI);
+                        if(booking!=null){
+                            bookedBySequence.put(ticket.sequence,booking);
+                            it.remove();
+                        }
+                        else if(token.isExpired()){
+                            it.remove();
+                        }
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10,TimeUnit.MINUTES);
+        double seconds=(System.nanoTime()-start)/1e9;
+        service.shutdown();
+        System.setOut(console);
+
+        long inOrder=bookedBySequence.keySet().stream().filter(sequence->sequence<=seatCount).count();
+        System.out.printf("Users %d, seats %d, threads %d%n",users,seatCount,threads);
+        System.out.printf("Requests %d in %.2f s, %.0f req/s%n",requests.get(),seconds,requests.get()/seconds);
+        System.out.printf("Booked %d, sold out rejects %d%n",bookedBySequence.size(),soldOutRejects.get());
+        System.out.printf("Fairness: %.1f%% of seats went to the first %d in the queue%n",
+                100.0*inOrder/Math.max(1,bookedBySequence.size()),seatCount);
+    }
+}
+
+/*
+ Closed-loop load generator for the booking path. Builds a synthetic catalog, then N threads each run
+ search / book / cancel in a loop for a fixed time, picking shows with Zipf popularity so a few shows
+ run hot. Reports throughput, latency percentiles per operation and allocation per operation.
+ Console output is discarded while it runs so printing does not dominate the numbers.
+
+ Run with `java -cp <classes> LoadGenerator [key=value ...]`, keys as in the defaults below.
+ */
+class LoadGenerator{
+    static final String[] OPERATIONS={"search","book","cancel"};
+    static final int MAX_SAMPLES_PER_THREAD=2_000_000;
+
+    // latencies in ns, one array per operation
+    static class Recorder{
+        long[][] samples=new long[OPERATIONS.length][1024];
+        int[] counts=new int[OPERATIONS.length];
+        long[] failures=new long[OPERATIONS.length];
+        long[] operations=new long[OPERATIONS.length];
+
+        void record(int operation, long nanos, boolean ok){
+            operations[operation]++;
+            if(!ok) failures[operation]++;
+            int count=counts[operation];
+            if(count==MAX_SAMPLES_PER_THREAD) return;
+            if(count==samples[operation].length){
+                samples[operation]=Arrays.copyOf(samples[operation],Math.min(count*2,MAX_SAMPLES_PER_THREAD));
+            }
+            samples[operation][count]=nanos;
+            counts[operation]=count+1;
+        }
+    }
+
+    // samples shows with probability proportional to 1/rank^exponent
+    static class Zipf{
+        double[] cdf;
+
+        Zipf(int n, double exponent){
+            cdf=new double[n];
+            double total=0;
+            for(int i=0;i<n;i++){
+                total+=1/Math.pow(i+1,exponent);
+                cdf[i]=total;
+            }
+            for(int i=0;i<n;i++){
+                cdf[i]/=total;
+            }
+        }
+
+        int next(Random random){
+            int at=Arrays.binarySearch(cdf,random.nextDouble());
+            return Math.min(cdf.length-1,at>=0 ? at : -at-1);
+        }
+    }
+
+    public static void main(String[] args) throws Exception{
+        Map<String,String> options=new HashMap<>();
+        for(String arg:args){
+            String[] pair=arg.split("=",2);
+            options.put(pair[0],pair[1]);
+        }
+        int theaters=Integer.parseInt(options.getOrDefault("theaters","20"));
+        int hallsPerTheater=Integer.parseInt(options.getOrDefault("halls","4"));
+        int showsPerHall=Integer.parseInt(options.getOrDefault("shows","6"));
+        int seatsPerHall=Integer.parseInt(options.getOrDefault("seats","300"));
+        int movies=Integer.parseInt(options.getOrDefault("movies","40"));
+        int threads=Integer.parseInt(options.getOrDefault("threads","8"));
+        int warmupSeconds=Integer.parseInt(options.getOrDefault("warmup","3"));
+        int seconds=Integer.parseInt(options.getOrDefault("seconds","10"));
+        int searchPercent=Integer.parseInt(options.getOrDefault("search","70"));
+        int bookPercent=Integer.parseInt(options.getOrDefault("book","20"));
+        double zipf=Double.parseDouble(options.getOrDefault("zipf","1.0"));
+
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        MovieBookingService service=new MovieBookingService();
+        List<Show> shows=new ArrayList<>();
+        long day=24*60*60*1000L;
+        long now=System.currentTimeMillis();
+        for(int t=0;t<theaters;t++){
+            for(int h=0;h<hallsPerTheater;h++){
+                List<Seat> seats=new ArrayList<>(seatsPerHall);
+                for(int i=0;i<seatsPerHall;i++){
+                    SeatType seatType=i<seatsPerHall*6/10 ? SeatType.General : i<seatsPerHall*9/10 ? SeatType.Delux : SeatType.Luxury;
+                    seats.add(new Seat("S"+i,SeatStatus.Available,seatType));
+                }
+                List<Show> hallShows=new ArrayList<>();
+                for(int s=0;s<showsPerHall;s++){
+                    int movie=(shows.size()*7+s)%movies;
+                    hallShows.add(new Show("T"+t+"H"+h+"S"+s,"Movie "+movie,2.5,new Date(now+(s%7)*day)));
+                }
+                new Hall("T"+t+"H"+h,seats,hallShows,20);
+                for(Show show:hallShows){
+                    service.addShow(show);
+                    shows.add(show);
+                }
+            }
+        }
+        Collections.shuffle(shows,new Random(42));
+        Zipf popularity=new Zipf(shows.size(),zipf);
+
+        com.sun.management.ThreadMXBean threadBean=(com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+        LongAdder allocatedBytes=new LongAdder();
+        List<Recorder> recorders=Collections.synchronizedList(new ArrayList<>());
+        long measureFrom=System.nanoTime()+TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long measureUntil=measureFrom+TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers=new ArrayList<>();
+        for(int w=0;w<threads;w++){
+            int seed=w;
+            Thread worker=new Thread(()->{
+                Random random=new Random(seed);
+                Recorder recorder=new Recorder();
+                ArrayDeque<Long> myBookings=new ArrayDeque<>();
+                User user=new User("U"+seed,"Load"+seed);
+                long allocatedAtStart=-1;
+                while(true){
+                    long start=System.nanoTime();
+                    if(start>=measureUntil) break;
+                    if(allocatedAtStart<0 && start>=measureFrom){
+                        allocatedAtStart=threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    }
+
+                    Show show=shows.get(popularity.next(random));
+                    int roll=random.nextInt(100);
+                    int operation=roll<searchPercent ? 0 : roll<searchPercent+bookPercent || myBookings.isEmpty() ? 1 : 2;
+                    boolean ok;
+                    if(operation==0){
+                        ok=!service.searchShows(show.showName,show.date).isEmpty();
+                    }
+                    else if(operation==1){
+                        Seat seat=show.hall.seats.get(random.nextInt(show.hall.seats.size()));
+                        Booking booking=service.bookSeat(user,show,seat.seatType,seat,PaymentMode.UPI);
+                        ok=booking!=null;
+                        if(ok) myBookings.add(booking.bookingId);
+                    }
+                    else{
+                        service.cancelBooking(myBookings.poll());
+                        ok=true;
+                    }
+                    long end=System.nanoTime();
+                    if(start>=measureFrom) recorder.record(operation,end-start,ok);
+                }
+                if(allocatedAtStart>=0){
+                    allocatedBytes.add(threadBean.getThreadAllocatedBytes(Thread.currentThread().getId())-allocatedAtStart);
+                }
+                recorders.add(recorder);
+            },"load-"+w);
+            workers.add(worker);
+            worker.start();
+        }
+        for(Thread worker:workers){
+            worker.join();
+        }
+        service.shutdown();
+        System.setOut(console);
+
+        long totalOperations=0;
+        System.out.printf("%d shows, %d seats each, %d threads, %d s measured%n",shows.size(),seatsPerHall,threads,seconds);
+        for(int operation=0;operation<OPERATIONS.length;operation++){
+            long count=0;
+            long failures=0;
+            int sampled=0;
+            for(Recorder recorder:recorders){
+                count+=recorder.operations[operation];
+                failures+=recorder.failures[operation];
+                sampled+=recorder.counts[operation];
+            }
+            totalOperations+=count;
+            long[] latencies=new long[sampled];
+            int at=0;
+            for(Recorder recorder:recorders){
+                System.arraycopy(recorder.samples[operation],0,latencies,at,recorder.counts[operation]);
+                at+=recorder.counts[operation];
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-7s %10d ops %9.0f ops/s  failed %5.1f%%  p50 %s  p99 %s  p99.9 %s  max %s%n",
+                    OPERATIONS[operation],count,(double)count/seconds,100.0*failures/Math.max(1,count),
+                    micros(latencies,0.50),micros(latencies,0.99),micros(latencies,0.999),micros(latencies,1.0));
+        }
+        System.out.printf("total   %10d ops %9.0f ops/s%n",totalOperations,(double)totalOperations/seconds);
+        System.out.printf("allocation %.1f MB/s, %.0f bytes/op (worker threads only)%n",
+                allocatedBytes.sum()/1e6/seconds,(double)allocatedBytes.sum()/Math.max(1,totalOperations));
+    }
+
+    private static String micros(long[] sorted, double percentile){
+        if(sorted.length==0) return "-";
+        int at=(int)Math.min(sorted.length-1,Math.ceil(percentile*sorted.length)-1);
+        return String.format("%.1fus",sorted[Math.max(0,at)]/1000.0);
+    }
+}
+
+/*
+ Search latency on a large catalog: indexes N shows (1M by default) spread over a few thousand titles
+ and a month of days, then times exact searches and type-ahead lookups on random titles and reports
+ percentiles. A handful of linear scans over the same catalog are timed for comparison.
+ Run with `java -cp <classes> SearchBenchmark [shows] [titles] [samples]`.
+ */
+class SearchBenchmark{
+    public static void main(String[] args){
+        int showCount=args.length>0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int titles=args.length>1 ? Integer.parseInt(args[1]) : 20_000;
+        int samples=args.length>2 ? Integer.parseInt(args[2]) : 200_000;
+        int days=30;
+
+        SearchService searchService=new SearchService();
+        List<Show> shows=new ArrayList<>(showCount);
+        long day=24*60*60*1000L;
+        long now=System.currentTimeMillis();
+        long buildStart=System.nanoTime();
+        for(int i=0;i<showCount;i++){
+            Show show=new Show("SH"+i,"Movie "+(i%titles),2,new Date(now+(i/titles%days)*day+i%1000));
+            searchService.index.addShow(show);
+            shows.add(show);
+        }
+        System.out.printf("Indexed %d shows, %d titles, %d days in %.1f s%n",showCount,titles,days,(System.nanoTime()-buildStart)/1e9);
+
+        Random random=new Random(7);
+        long[] searchLatencies=new long[samples];
+        long[] suggestLatencies=new long[samples];
+        long found=0;
+        for(int round=0;round<2;round++){
+            // first round warms up the JIT and is thrown away
+            for(int i=0;i<samples;i++){
+                int title=random.nextInt(titles);
+                Date date=new Date(now+random.nextInt(days)*day);
+                String name="movie  "+title;
+                long start=System.nanoTime();
+                found+=searchService.searchShows(name,date).size();
+                long mid=System.nanoTime();
+                searchService.suggestShowNames("Movie "+title/10,10);
+                long end=System.nanoTime();
+                searchLatencies[i]=mid-start;
+                suggestLatencies[i]=end-mid;
+            }
+        }
+        Arrays.sort(searchLatencies);
+        Arrays.sort(suggestLatencies);
+        System.out.printf("search  p50 %s  p99 %s  p99.9 %s  max %s (%d hits)%n",micros(searchLatencies,0.50),micros(searchLatencies,0.99),
+                micros(searchLatencies,0.999),micros(searchLatencies,1.0),found/2);
+        System.out.printf("suggest p50 %s  p99 %s  p99.9 %s  max %s%n",micros(suggestLatencies,0.50),micros(suggestLatencies,0.99),
+                micros(suggestLatencies,0.999),micros(suggestLatencies,1.0));
+
+        long[] scanLatencies=new long[20];
+        for(int i=0;i<scanLatencies.length;i++){
+            Show target=shows.get(random.nextInt(showCount));
+            long start=System.nanoTime();
+            searchService.searchShows(shows,target.showName,target.date);
+            scanLatencies[i]=System.nanoTime()-start;
+        }
+        Arrays.sort(scanLatencies);
+        System.out.printf("linear scan p50 %s  max %s%n",micros(scanLatencies,0.50),micros(scanLatencies,1.0));
+    }
+
+    private static String micros(long[] sorted, double percentile){
+        int at=(int)Math.min(sorted.length-1,Math.ceil(percentile*sorted.length)-1);
+        return String.format("%.1fus",sorted[Math.max(0,at)]/1000.0);
+    }
+}
+
+/*
+ Browse throughput under Zipf popularity: threads look up seat maps, searches and theater listings
+ through the browse cache, with a small share of book-and-cancel pairs so hot seat maps keep going
+ stale. Runs once per thread count on a fresh service and reports lookups/s and cache hit rates.
+ Run with `java -cp <classes> BrowseBenchmark [seconds] [zipf exponent] [max threads]`.
+ */
+class BrowseBenchmark{
+    static final int THEATERS=200;
+    static final int HALLS_PER_THEATER=5;
+    static final int SHOWS_PER_HALL=20;
+    static final int SEATS_PER_HALL=100;
+
+    public static void main(String[] args) throws Exception{
+        int seconds=args.length>0 ? Integer.parseInt(args[0]) : 3;
+        double exponent=args.length>1 ? Double.parseDouble(args[1]) : 1.0;
+        int maxThreads=args.length>2 ? Integer.parseInt(args[2]) : 8;
+
+        java.io.PrintStream console=System.out;
+        for(int threads=1;threads<=maxThreads;threads*=2){
+            System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+            MovieBookingService service=new MovieBookingService();
+            Map<Show,Theater> theaterOf=new HashMap<>();
+            List<Show> shows=new ArrayList<>();
+            buildCatalog(service,theaterOf,shows);
+            LoadGenerator.Zipf popularity=new LoadGenerator.Zipf(shows.size(),exponent);
+
+            LongAdder lookups=new LongAdder();
+            long until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+            List<Thread> workers=new ArrayList<>();
+            for(int w=0;w<threads;w++){
+                int seed=w;
+                Thread worker=new Thread(()->{
+                    Random random=new Random(seed);
+                    User user=new User("B"+seed,"Browser"+seed);
+                    long count=0;
+                    while(System.nanoTime()<until){
+                        Show show=shows.get(popularity.next(random));
+                        int roll=random.nextInt(100);
+                        if(roll<60) service.getSeatMap(show);
+                        else if(roll<85) service.searchShows(show.showName,show.date);
+                        else if(roll<95) service.getShowListing(theaterOf.get(show));
+                        else{
+                            Seat seat=show.hall.seats.get(random.nextInt(SEATS_PER_HALL));
+                            Booking booking=service.bookSeat(user,show,seat.seatType,seat,PaymentMode.UPI);
+                            if(booking!=null) service.cancelBooking(booking.bookingId);
+                            continue;
+                        }
+                        count++;
+                    }
+                    lookups.add(count);
+                },"browse-"+w);
+                workers.add(worker);
+                worker.start();
+            }
+            for(Thread worker:workers){
+                worker.join();
+            }
+            service.shutdown();
+            System.setOut(console);
+
+            BrowseCache cache=service.browseCache;
+            System.out.printf("%d threads: %.0f lookups/s, hit rate seat maps %.3f, searches %.3f, listings %.3f%n",
+                    threads,lookups.sum()/(double)seconds,cache.seatMaps.hitRate(),cache.searches.hitRate(),cache.listings.hitRate());
+        }
+    }
+
+    private static void buildCatalog(MovieBookingService service, Map<Show,Theater> theaterOf, List<Show> shows){
+        long day=24*60*60*1000L;
+        long now=System.currentTimeMillis();
+        for(int t=0;t<THEATERS;t++){
+            Theater theater=new Theater();
+            theater.theaterId="T"+t;
+            theater.theatername="Theater "+t;
+            theater.halls=new ArrayList<>();
+            for(int h=0;h<HALLS_PER_THEATER;h++){
+                List<Seat> seats=new ArrayList<>(SEATS_PER_HALL);
+                for(int i=0;i<SEATS_PER_HALL;i++){
+                    seats.add(new Seat("S"+i,SeatStatus.Available,SeatType.General));
+                }
+                List<Show> hallShows=new ArrayList<>();
+                for(int s=0;s<SHOWS_PER_HALL;s++){
+                    hallShows.add(new Show("T"+t+"H"+h+"S"+s,"Movie "+(shows.size()+s)%500,2,new Date(now+(s%7)*day)));
+                }
+                theater.halls.add(new Hall("T"+t+"H"+h,seats,hallShows,20));
+                for(Show show:hallShows){
+                    service.addShow(show);
+                    shows.add(show);
+                    theaterOf.put(show,theater);
+                }
+            }
+        }
+        Collections.shuffle(shows,new Random(42));
+    }
+}
+
+/*
+ Bookings stay reachable after their show is unlisted, or when the show was never listed at all:
+ books one of each, unlists the first show, then looks both bookings up and cancels them.
+ Run with `java -cp <classes> RemovedShowCheck`.
+ */
+class RemovedShowCheck{
+    public static void main(String[] args){
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        MovieBookingService service=new MovieBookingService();
+        User user=new User("U1","User");
+        Show listed=newShow("RS1");
+        Show unlisted=newShow("RS2");
+        service.addShow(listed);
+
+        Booking first=service.bookSeat(user,listed,SeatType.General,listed.hall.seats.get(0),PaymentMode.UPI);
+        Booking second=service.bookSeat(user,unlisted,SeatType.General,unlisted.hall.seats.get(0),PaymentMode.UPI);
+        service.removeShow(listed);
+        boolean found=service.getBooking(first.bookingId)!=null && service.getBooking(second.bookingId)!=null;
+        service.cancelBooking(first.bookingId);
+        service.cancelBooking(second.bookingId);
+        boolean released=!listed.openForSale().isTaken(0) && !unlisted.openForSale().isTaken(0);
+        boolean gone=service.getBooking(first.bookingId)==null && service.getBooking(second.bookingId)==null;
+        service.shutdown();
+        System.setOut(console);
+
+        System.out.println("Found after unlisting "+found+", seats released "+released+", cancelled bookings gone "+gone);
+        if(!found || !released || !gone) throw new IllegalStateException("Bookings on unlisted shows are lost");
+    }
+
+    private static Show newShow(String showId){
+        List<Seat> seats=new ArrayList<>();
+        for(int i=0;i<4;i++){
+            seats.add(new Seat(showId+"-S"+i,SeatStatus.Available,SeatType.General));
+        }
+        Show show=new Show(showId,"Show "+showId,2,new Date());
+        new Hall("H-"+showId,seats,new ArrayList<>(Collections.singletonList(show)),4);
+        return show;
+    }
+}
+
+/*
+ Seat contention: 10k simulated users race for the seats of one 500 seat hall through hold and
+ confirm, some of them abandoning their hold so it has to expire. Fails if a seat is confirmed for two
+ users, or if confirmed plus free seats do not add up to the hall once the abandoned holds expired.
+ Run with `java -cp <classes> SeatContentionStress [users] [seats] [threads]`.
+ */
+class SeatContentionStress{
+    public static void main(String[] args) throws Exception{
+        int users=args.length>0 ? Integer.parseInt(args[0]) : 10_000;
+        int seatCount=args.length>1 ? Integer.parseInt(args[1]) : 500;
+        int threads=args.length>2 ? Integer.parseInt(args[2]) : 64;
+        long abandonedTtlMillis=50;
+
+        List<Seat> seats=new ArrayList<>();
+        for(int i=0;i<seatCount;i++){
+            seats.add(new Seat("S"+i,SeatStatus.Available,SeatType.General));
+        }
+        Show show=new Show("ST1","Contention",2,new Date());
+        new Hall("H1",seats,new ArrayList<>(Collections.singletonList(show)),25);
+        BookingEngine engine=new BookingEngine();
+
+        AtomicReferenceArray<Integer> owners=new AtomicReferenceArray<>(seatCount);
+        LongAdder confirmed=new LongAdder();
+        LongAdder doubleBooked=new LongAdder();
+        LongAdder attempts=new LongAdder();
+        AtomicInteger nextUser=new AtomicInteger();
+        List<Thread> workers=new ArrayList<>();
+        long start=System.nanoTime();
+        for(int t=0;t<threads;t++){
+            Thread worker=new Thread(()->{
+                Random random=new Random();
+                int user;
+                while((user=nextUser.getAndIncrement())<users){
+                    // each user tries a few seats until one sticks
+                    for(int attempt=0;attempt<5 && !show.openForSale().isSoldOut();attempt++){
+                        attempts.increment();
+                        Seat seat=seats.get(random.nextInt(seatCount));
+                        boolean abandon=random.nextInt(10)==0;
+                        SeatHold hold=engine.hold(show,Collections.singletonList(seat),abandon ? abandonedTtlMillis : 60_000);
+                        if(hold==null) continue;
+                        if(abandon) break;
+                        if(engine.confirm(hold.holdId)){
+                            confirmed.increment();
+                            if(!owners.compareAndSet(seat.index,null,user)) doubleBooked.increment();
+                        }
+                        break;
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for(Thread worker:workers){
+            worker.join();
+        }
+        double seconds=(System.nanoTime()-start)/1e9;
+        Thread.sleep(abandonedTtlMillis*4);
+
+        int free=show.openForSale().availableCount(SeatType.General);
+        System.out.printf("%d users, %d seats, %d threads: %.0f hold attempts/s%n",users,seatCount,threads,attempts.sum()/seconds);
+        System.out.printf("Confirmed %d, double booked %d, free after expiry %d, open holds %d, pending expiry tasks %d%n",
+                confirmed.sum(),doubleBooked.sum(),free,engine.holds.size(),engine.expiry.getQueue().size());
+        if(doubleBooked.sum()!=0 || confirmed.sum()+free!=seatCount) throw new IllegalStateException("Seat contention stress failed");
+    }
+}
+
+public class Main {
+    public static void main(String[] args) {
+
+        // Step 1: Create seats
+        List<Seat> seats = new ArrayList<>();
+        seats.add(new Seat("S1", SeatStatus.Available, SeatType.General));
+        seats.add(new Seat("S2", SeatStatus.Available, SeatType.Delux));
+        seats.add(new Seat("S3", SeatStatus.InMaintainance, SeatType.Luxury));
+        seats.add(new Seat("S4", SeatStatus.Available, SeatType.Luxury));
+
+        // Step 2: Create a show
+        Show show = new Show("SH1", "Interstellar", 2.5, new Date());
+
+        // Step 3: Create a hall with show and seats
+        List<Show> shows = new ArrayList<>();
+        shows.add(show);
+        Hall hall = new Hall("H1", seats, shows);
+
+        // Step 4: Create theater with hall
+        List<Hall> halls = new ArrayList<>();
+        halls.add(hall);
+        Theater theater = new Theater();
+        theater.theaterId = "T1";
+        theater.theatername = "PVR";
+        theater.location = "Delhi";
+        theater.halls = halls;
+
+        // Step 5: Create services
+        MovieBookingService bookingService = new MovieBookingService();
+
+        // Step 6: Create a user
+        User user = new User("U1", "Mukul");
+
+        // Step 7: Search show
+        bookingService.addShow(show);
+        List<Show> resultShows = bookingService.searchShows("Interstellar", show.date);
+        System.out.println("Found Shows: " + resultShows.size());
+        System.out.println("Suggestions for 'inter': " + bookingService.suggestShowNames("inter", 5));
+
+        System.out.println("Available Luxury seats: " + bookingService.getAvailableSeatCount(show, SeatType.Luxury));
+
+        // Step 8: Try booking a seat
+        Seat selectedSeat = seats.get(1); // Delux, Available
+        Booking booking = bookingService.bookSeat(user, show, selectedSeat.seatType, selectedSeat, PaymentMode.UPI);
+
+        if (booking != null) {
+            System.out.println("Booking successful. Booking ID: " + booking.bookingId);
+        }
+
+        // Step 9: Cancel booking
+        if (booking != null) {
+            bookingService.cancelBooking(booking.bookingId);
+        }
+
+        // Step 9b: Book a group of seats in one go
+        bookingService.bookSeats(user, show, Arrays.asList(seats.get(0), seats.get(1)), PaymentMode.CARD);
+
+        // Step 10: Browse
+        System.out.println("Seat map: " + Arrays.toString(bookingService.getSeatMap(show).statuses));
+        System.out.println("Shows at " + theater.theatername + ": " + bookingService.getShowListing(theater).size());
+        bookingService.browseCache.printStats();
+        bookingService.shutdown();
     }
 }
\ No newline at end of file
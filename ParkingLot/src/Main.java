@@ -1,4 +1,36 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 enum SpotStatus {
     Available, Occupied, InMaintainance
@@ -15,6 +47,7 @@ enum PaymentMode {
 abstract class Vehicle{
     String vehicleId;
     VehicleType type;
+    boolean electric;
 
     public Vehicle(String vehicleId, VehicleType type){
         this.vehicleId=vehicleId;
@@ -23,6 +56,10 @@ abstract class Vehicle{
 
     abstract String getVehicleId();
     abstract VehicleType getVehicleType();
+
+    boolean isElectric(){
+        return electric;
+    }
 }
 
 class TwoWheeler extends Vehicle{
@@ -85,14 +122,29 @@ class VehicleFactory{
             default: throw new IllegalArgumentException("Invalid Vehicle Type");
         }
     }
+
+    static Vehicle createFactory(String vehicleNo, VehicleType type, boolean electric){
+        Vehicle vehicle=createFactory(vehicleNo,type);
+        vehicle.electric=electric;
+        return vehicle;
+    }
 }
 
 
 class Spot{
+    static final AtomicReferenceFieldUpdater<Spot,SpotStatus> STATUS=
+            AtomicReferenceFieldUpdater.newUpdater(Spot.class,SpotStatus.class,"spotStatus");
+
     String spotId;
-    SpotStatus spotStatus;
+    volatile SpotStatus spotStatus;
     VehicleType type;
     Vehicle vehicleParked;
+    Ticket ticket;
+    Floor floor;
+    int position;
+    // walking distance from the floor's ramp, defaults to the spot's position on the floor
+    int distance=-1;
+    boolean evCharger;
 
     public Spot(String spotId, SpotStatus status, VehicleType type){
         this.spotId=spotId;
@@ -100,6 +152,12 @@ class Spot{
         this.type=type;
     }
 
+    public Spot(String spotId, SpotStatus status, VehicleType type, int distance, boolean evCharger){
+        this(spotId,status,type);
+        this.distance=distance;
+        this.evCharger=evCharger;
+    }
+
     String getSpotId(){
         return spotId;
     }
@@ -114,51 +172,267 @@ class Spot{
 
     void freeSpot(){
         this.vehicleParked=null;
-        this.spotStatus=SpotStatus.Available;
+        this.ticket=null;
+        SpotStatus previous=STATUS.getAndSet(this,SpotStatus.Available);
+        if(floor!=null){
+            if(previous==SpotStatus.Occupied) floor.occupied[type.ordinal()].decrement();
+            floor.markAvailable(this);
+        }
     }
 
     void assignVehicle(Vehicle vehicle){
         this.vehicleParked=vehicle;
-        this.spotStatus=SpotStatus.Occupied;
+        SpotStatus previous=STATUS.getAndSet(this,SpotStatus.Occupied);
+        if(floor!=null){
+            if(previous!=SpotStatus.Occupied) floor.occupied[type.ordinal()].increment();
+            floor.markUnavailable(this);
+        }
+    }
+
+    // atomically moves the spot from Available to Occupied, only one gate can win
+    boolean tryAssignVehicle(Vehicle vehicle){
+        if(!STATUS.compareAndSet(this,SpotStatus.Available,SpotStatus.Occupied)) return false;
+        this.vehicleParked=vehicle;
+        if(floor!=null) floor.occupied[type.ordinal()].increment();
+        return true;
     }
 }
 
 class DisplayBoard{
+    // occupancy last pushed to the signage, [floor][vehicle type]
+    long[][] lastShown;
+
     static void displayBoard(List<Spot> spots){
         for(Spot spot:spots){
             System.out.println("Spot Status: "+ spot.getSpotStatus());
         }
     }
+
+    // renders from the floor counters in O(floors x types) and prints only what changed since the last call
+    synchronized int refresh(List<Floor> floors){
+        VehicleType[] types=VehicleType.values();
+        if(lastShown==null || lastShown.length!=floors.size()){
+            lastShown=new long[floors.size()][types.length];
+            for(long[] row:lastShown) Arrays.fill(row,-1);
+        }
+
+        int changes=0;
+        for(int i=0;i<floors.size();i++){
+            Floor floor=floors.get(i);
+            for(VehicleType type:types){
+                long occupied=floor.getOccupiedCount(type);
+                if(lastShown[i][type.ordinal()]==occupied) continue;
+
+                lastShown[i][type.ordinal()]=occupied;
+                changes++;
+                System.out.println("Floor "+floor.floorId+" "+type+": "+occupied+"/"+floor.getCapacity(type)+" occupied");
+            }
+        }
+        return changes;
+    }
 }
 
 class Floor{
+    static final Comparator<Spot> NEAREST_FIRST=
+            Comparator.comparingInt((Spot spot)->spot.distance).thenComparingInt(spot->spot.position);
+
     String floorId;
+    int level;
     List<Spot> spots;
     DisplayBoard displayBoard;
+    // distance from the entry gate to this floor's ramp
+    int rampDistance;
+    // free spots per vehicle type, nearest to the ramp first; EV charger spots are kept apart
+    Map<VehicleType,ConcurrentSkipListSet<Spot>> freeSpots=new EnumMap<>(VehicleType.class);
+    Map<VehicleType,ConcurrentSkipListSet<Spot>> freeChargerSpots=new EnumMap<>(VehicleType.class);
+    // live occupancy and capacity per vehicle type, indexed by VehicleType.ordinal()
+    LongAdder[] occupied=new LongAdder[VehicleType.values().length];
+    int[] capacity=new int[VehicleType.values().length];
 
     public Floor(String floorId, List<Spot> spots){
         this.floorId=floorId;
         this.spots=spots;
+
+        for(VehicleType type:VehicleType.values()){
+            freeSpots.put(type,new ConcurrentSkipListSet<>(NEAREST_FIRST));
+            freeChargerSpots.put(type,new ConcurrentSkipListSet<>(NEAREST_FIRST));
+            occupied[type.ordinal()]=new LongAdder();
+        }
+        for(int i=0;i<spots.size();i++){
+            Spot spot=spots.get(i);
+            spot.floor=this;
+            spot.position=i;
+            if(spot.distance<0) spot.distance=i;
+            capacity[spot.getVehicleType().ordinal()]++;
+            if(spot.getSpotStatus()==SpotStatus.Available){
+                markAvailable(spot);
+            }
+            else if(spot.getSpotStatus()==SpotStatus.Occupied){
+                occupied[spot.getVehicleType().ordinal()].increment();
+            }
+        }
+    }
+
+    Floor(String floorId, List<Spot> spots, int rampDistance){
+        this(floorId,spots);
+        this.rampDistance=rampDistance;
+    }
+
+    long getOccupiedCount(VehicleType type){
+        return occupied[type.ordinal()].sum();
+    }
+
+    int getCapacity(VehicleType type){
+        return capacity[type.ordinal()];
     }
 
     public Spot getAvailableSpot(VehicleType type){
-        for(Spot spot:spots){
-            if(spot.getVehicleType()==type && spot.getSpotStatus()==SpotStatus.Available){
-                return spot;
+        Spot regular=peekSpot(type,false);
+        Spot charger=peekSpot(type,true);
+        if(regular==null) return charger;
+        if(charger==null) return regular;
+        return NEAREST_FIRST.compare(regular,charger)<=0 ? regular : charger;
+    }
+
+    Spot peekSpot(VehicleType type, boolean charger){
+        Iterator<Spot> it=freeSet(type,charger).iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    // nearest free spot of either kind; safe to call from many gates at once
+    Spot claimSpot(Vehicle vehicle){
+        Spot spot;
+        while((spot=getAvailableSpot(vehicle.getVehicleType()))!=null){
+            Spot claimed=claimSpot(vehicle,spot.evCharger);
+            if(claimed!=null) return claimed;
+        }
+        return null;
+    }
+
+    // a spot is handed out only if this caller wins its CAS, losers move on to the next one
+    Spot claimSpot(Vehicle vehicle, boolean charger){
+        ConcurrentSkipListSet<Spot> free=freeSet(vehicle.getVehicleType(),charger);
+        Spot spot;
+        while((spot=free.pollFirst())!=null){
+            if(spot.tryAssignVehicle(vehicle)) return spot;
+        }
+        return null;
+    }
+
+    void markAvailable(Spot spot){
+        freeSet(spot.getVehicleType(),spot.evCharger).add(spot);
+    }
+
+    void markUnavailable(Spot spot){
+        freeSet(spot.getVehicleType(),spot.evCharger).remove(spot);
+    }
+
+    private ConcurrentSkipListSet<Spot> freeSet(VehicleType type, boolean charger){
+        return charger ? freeChargerSpots.get(type) : freeSpots.get(type);
+    }
+}
+
+/* ======= Spot Assignment Strategies ======= */
+
+// every strategy works off the floors' ordered free-spot sets, so assign and release stay O(log n)
+interface SpotAssignmentStrategy{
+    Spot assignSpot(Vehicle vehicle, List<Floor> floors);
+}
+
+class FirstAvailableStrategy implements SpotAssignmentStrategy{
+    @Override
+    public Spot assignSpot(Vehicle vehicle, List<Floor> floors){
+        for(Floor floor:floors){
+            Spot spot=floor.claimSpot(vehicle);
+            if(spot!=null) return spot;
+        }
+        return null;
+    }
+}
+
+class NearestToGateStrategy implements SpotAssignmentStrategy{
+    static final boolean[] ANY_SPOT={false,true};
+
+    @Override
+    public Spot assignSpot(Vehicle vehicle, List<Floor> floors){
+        return claimNearest(vehicle,floors,ANY_SPOT);
+    }
+
+    // picks the free spot with the smallest ramp + spot distance among the given kinds of spot
+    static Spot claimNearest(Vehicle vehicle, List<Floor> floors, boolean[] chargerKinds){
+        while(true){
+            Floor bestFloor=null;
+            boolean bestKind=false;
+            long bestDistance=Long.MAX_VALUE;
+            for(Floor floor:floors){
+                for(boolean charger:chargerKinds){
+                    Spot spot=floor.peekSpot(vehicle.getVehicleType(),charger);
+                    if(spot!=null && (long)floor.rampDistance+spot.distance<bestDistance){
+                        bestDistance=(long)floor.rampDistance+spot.distance;
+                        bestFloor=floor;
+                        bestKind=charger;
+                    }
+                }
             }
+            if(bestFloor==null) return null;
+
+            Spot spot=bestFloor.claimSpot(vehicle,bestKind);
+            if(spot!=null) return spot;
+        }
+    }
+}
+
+class FloorLoadBalancingStrategy implements SpotAssignmentStrategy{
+    @Override
+    public Spot assignSpot(Vehicle vehicle, List<Floor> floors){
+        VehicleType type=vehicle.getVehicleType();
+        boolean[] tried=new boolean[floors.size()];
+        for(int attempt=0;attempt<floors.size();attempt++){
+            int best=-1;
+            double bestLoad=Double.MAX_VALUE;
+            for(int i=0;i<floors.size();i++){
+                Floor floor=floors.get(i);
+                if(tried[i] || floor.getCapacity(type)==0) continue;
+
+                double load=(double)floor.getOccupiedCount(type)/floor.getCapacity(type);
+                if(load<bestLoad){
+                    bestLoad=load;
+                    best=i;
+                }
+            }
+            if(best<0) return null;
+
+            tried[best]=true;
+            Spot spot=floors.get(best).claimSpot(vehicle);
+            if(spot!=null) return spot;
         }
         return null;
     }
+}
 
+class EvChargerAwareStrategy implements SpotAssignmentStrategy{
+    static final boolean[] CHARGER={true};
+    static final boolean[] REGULAR={false};
+
+    // EVs get charger spots first, everyone else only falls back to them when the lot is otherwise full
+    @Override
+    public Spot assignSpot(Vehicle vehicle, List<Floor> floors){
+        boolean[] preferred=vehicle.isElectric() ? CHARGER : REGULAR;
+        boolean[] fallback=vehicle.isElectric() ? REGULAR : CHARGER;
+
+        Spot spot=NearestToGateStrategy.claimNearest(vehicle,floors,preferred);
+        if(spot!=null) return spot;
+        return NearestToGateStrategy.claimNearest(vehicle,floors,fallback);
+    }
 }
 
 class Ticket{
-    String ticketId;
+    long ticketId;
     Vehicle vehicle;
     Spot spot;
-    Date entryTime;
+    long entryTime;
 
-    Ticket(String ticketId, Vehicle vehicle, Spot spot, Date entryTime){
+    Ticket(long ticketId, Vehicle vehicle, Spot spot, long entryTime){
         this.ticketId=ticketId;
         this.spot=spot;
         this.vehicle=vehicle;
@@ -166,31 +440,165 @@ class Ticket{
     }
 }
 
+/*
+ Ticket ids are 63 bit and sortable by issue time:
+ | 41 bits millis since EPOCH | 12 bits sequence | 10 bits gate id |
+ Each gate owns one generator, so ids never clash across gates and no SecureRandom is involved.
+ */
+class TicketIdGenerator{
+    static final long EPOCH=1704067200000L; // 2024-01-01T00:00:00Z
+    static final int GATE_BITS=10;
+    static final int SEQUENCE_BITS=12;
+    static final long MAX_GATE_ID=(1L<<GATE_BITS)-1;
+
+    final long gateId;
+    // (millis since EPOCH << SEQUENCE_BITS) | sequence of the last issued id
+    final AtomicLong lastState=new AtomicLong();
+
+    TicketIdGenerator(int gateId){
+        if(gateId<0 || gateId>MAX_GATE_ID) throw new IllegalArgumentException("Invalid Gate Id");
+        this.gateId=gateId;
+    }
+
+    long nextId(long nowMillis){
+        long candidate=(nowMillis-EPOCH)<<SEQUENCE_BITS;
+        while(true){
+            long last=lastState.get();
+            // if the sequence runs out within a millisecond we borrow the next one instead of waiting
+            long next=Math.max(candidate,last+1);
+            if(lastState.compareAndSet(last,next)){
+                return (next<<GATE_BITS)|gateId;
+            }
+        }
+    }
+
+    // the millisecond of the newest id, which may run ahead of the clock after a burst
+    long lastMillis(){
+        return (lastState.get()>>>SEQUENCE_BITS)+EPOCH;
+    }
+
+    static long timestampOf(long ticketId){
+        return (ticketId>>>(GATE_BITS+SEQUENCE_BITS))+EPOCH;
+    }
+
+    static int gateOf(long ticketId){
+        return (int)(ticketId&MAX_GATE_ID);
+    }
+}
+
 class Pricing{
     static Map<VehicleType,Double> priceMap=new HashMap<>();
+    static volatile TariffTable tariff;
 
     static {
         priceMap.put(VehicleType.TwoWheeler,20.0);
         priceMap.put(VehicleType.Car,30.0);
         priceMap.put(VehicleType.Truck,50.0);
+        tariff=TariffTable.defaultTariff(ZoneId.systemDefault().getRules().getOffset(Instant.now()));
     }
 
     static double getPrice(VehicleType vehicleType){
         return priceMap.get(vehicleType);
     }
+
+    static double getFee(VehicleType vehicleType, long entryTime, long exitTime){
+        return tariff.fee(vehicleType,entryTime,exitTime);
+    }
+
+    // tariff changes are swapped in whole, a fee is always computed against a single table
+    static void reloadTariff(TariffTable table){
+        tariff=table;
+    }
+}
+
+/*
+ Immutable weekly tariff. Hourly rates are given per vehicle type for each of the 168 hours of the week
+ (Monday 00:00 first) and expanded into a cumulative cost per minute, so the fee for a stay of any length
+ is two array reads away.
+ */
+class TariffTable{
+    static final int HOURS_PER_WEEK=7*24;
+    static final int MINUTES_PER_WEEK=HOURS_PER_WEEK*60;
+    // 1970-01-01 was a Thursday, shift epoch minutes so that minute 0 of a week is Monday 00:00
+    static final long MONDAY_SHIFT_MINUTES=3*24*60;
+
+    // [vehicle type ordinal][minute of week 0..MINUTES_PER_WEEK]
+    final double[][] cumulative;
+    final double[] minimumFee;
+    final long offsetMillis;
+
+    TariffTable(double[][] hourlyRates, double[] minimumFee, ZoneOffset offset){
+        int types=VehicleType.values().length;
+        if(hourlyRates.length!=types || minimumFee.length!=types) throw new IllegalArgumentException("Tariff needed for every vehicle type");
+
+        this.cumulative=new double[types][MINUTES_PER_WEEK+1];
+        this.minimumFee=minimumFee.clone();
+        this.offsetMillis=offset.getTotalSeconds()*1000L;
+        for(int t=0;t<types;t++){
+            if(hourlyRates[t].length!=HOURS_PER_WEEK) throw new IllegalArgumentException("Tariff needs 168 hourly rates");
+            for(int minute=0;minute<MINUTES_PER_WEEK;minute++){
+                cumulative[t][minute+1]=cumulative[t][minute]+hourlyRates[t][minute/60]/60;
+            }
+        }
+    }
+
+    // base rate from Pricing, 1.5x on weekday daytime (08:00-20:00), 1.25x at weekends, first hour minimum
+    static TariffTable defaultTariff(ZoneOffset offset){
+        VehicleType[] types=VehicleType.values();
+        double[][] hourlyRates=new double[types.length][HOURS_PER_WEEK];
+        double[] minimumFee=new double[types.length];
+        for(VehicleType type:types){
+            double base=Pricing.getPrice(type);
+            minimumFee[type.ordinal()]=base;
+            for(int hour=0;hour<HOURS_PER_WEEK;hour++){
+                int day=hour/24;
+                int hourOfDay=hour%24;
+                double multiplier=day>=5 ? 1.25 : (hourOfDay>=8 && hourOfDay<20 ? 1.5 : 1.0);
+                hourlyRates[type.ordinal()][hour]=base*multiplier;
+            }
+        }
+        return new TariffTable(hourlyRates,minimumFee,offset);
+    }
+
+    double fee(VehicleType type, long entryTime, long exitTime){
+        double[] costs=cumulative[type.ordinal()];
+        long from=Math.floorDiv(entryTime+offsetMillis,60_000L)+MONDAY_SHIFT_MINUTES;
+        // every started minute is charged
+        long to=Math.floorDiv(exitTime+offsetMillis+59_999L,60_000L)+MONDAY_SHIFT_MINUTES;
+        double fee=costSince(costs,to)-costSince(costs,from);
+        return Math.max(fee,minimumFee[type.ordinal()]);
+    }
+
+    private static double costSince(double[] costs, long minute){
+        return (minute/MINUTES_PER_WEEK)*costs[MINUTES_PER_WEEK]+costs[(int)(minute%MINUTES_PER_WEEK)];
+    }
 }
 
 class ParkingLot{
-    static ParkingLot instance;
+    static volatile ParkingLot instance;
     List<Floor> floors;
 
     public ParkingLot(List<Floor> floors) {
         this.floors=floors;
+        for(int i=0;i<floors.size();i++){
+            floors.get(i).level=i;
+        }
     }
 
+    // double-checked locking: the lock is only taken while the lot is being created
     static ParkingLot getInstance(List<Floor> floors){
-        if(instance==null) instance=new ParkingLot(floors);
-        return instance;
+        ParkingLot lot=instance;
+        if(lot!=null) return lot;
+        synchronized (ParkingLot.class){
+            if(instance==null) instance=new ParkingLot(floors);
+            return instance;
+        }
+    }
+
+    static ParkingLot getInstance(){
+        ParkingLot lot=instance;
+        if(lot==null) throw new IllegalStateException("Parking lot not initialised");
+        return lot;
     }
 
     List<Floor> getFloors(){
@@ -199,27 +607,76 @@ class ParkingLot{
 }
 
 class Entry{
-    public Ticket issueTicket(Vehicle vehicle, ParkingLot lot){
-        List<Floor> floors=lot.getFloors();
-        for(Floor floor:floors) {
-            Spot spot = floor.getAvailableSpot(vehicle.getVehicleType());
-            if (spot != null) {
-                spot.assignVehicle(vehicle);
-                return new Ticket(UUID.randomUUID().toString(), vehicle, spot, new Date());
-            }
+    // gate ids in use in this process, two gates sharing one would mint the same ticket ids
+    private static final Set<Integer> gateIds=ConcurrentHashMap.newKeySet();
+
+    int gateId;
+    TicketIdGenerator idGenerator;
+    volatile SpotAssignmentStrategy strategy=new FirstAvailableStrategy();
+
+    // takes the lowest gate id nobody has claimed yet
+    Entry(){
+        this.gateId=claimFreeGateId();
+        this.idGenerator=new TicketIdGenerator(gateId);
+    }
+
+    Entry(int gateId){
+        this.idGenerator=new TicketIdGenerator(gateId);
+        if(!gateIds.add(gateId)) throw new IllegalArgumentException("Gate Id "+gateId+" already in use");
+        this.gateId=gateId;
+    }
+
+    // the gate is taken out of service and its id can go to a new gate; the id is handed back only once
+    // the clock is past this gate's last ticket, so a successor cannot mint an id this gate already issued
+    void release(){
+        while(System.currentTimeMillis()<=idGenerator.lastMillis()){
+            Thread.onSpinWait();
         }
-        return null;
+        gateIds.remove(gateId);
+    }
+
+    private static int claimFreeGateId(){
+        for(int gateId=0;gateId<=TicketIdGenerator.MAX_GATE_ID;gateId++){
+            if(gateIds.add(gateId)) return gateId;
+        }
+        throw new IllegalStateException("No free Gate Id");
+    }
+
+    public Ticket issueTicket(Vehicle vehicle, ParkingLot lot){
+        Spot spot=strategy.assignSpot(vehicle,lot.getFloors());
+        if(spot==null) return null;
+
+        long now=System.currentTimeMillis();
+        Ticket ticket=new Ticket(idGenerator.nextId(now), vehicle, spot, now);
+        spot.ticket=ticket;
+        return ticket;
     }
 }
 
 class Exit{
+    PaymentProcessor paymentProcessor;
+
+    Exit(){
+    }
+
+    // with a processor the barrier opens straight away and the payment settles in the background
+    Exit(PaymentProcessor paymentProcessor){
+        this.paymentProcessor=paymentProcessor;
+    }
+
     void makePayment(Ticket ticket, PaymentMode mode){
         if(ticket == null){
             System.out.println("No ticket found! Cannot proceed with payment.");
             return;
         }
 
-        double amount=Pricing.getPrice(ticket.vehicle.getVehicleType());
+        double amount=Pricing.getFee(ticket.vehicle.getVehicleType(),ticket.entryTime,System.currentTimeMillis());
+        if(paymentProcessor!=null){
+            ticket.spot.freeSpot();
+            paymentProcessor.submit(ticket,mode,amount);
+            return;
+        }
+
         Payment payment=PaymentFactory.getPaymentMethod(mode);
         payment.pay(amount);
         ticket.spot.freeSpot();
@@ -227,9 +684,15 @@ class Exit{
 }
 
 class ParkingLotService{
+    static final long SNAPSHOT_INTERVAL_MILLIS=60*1000;
+
     ParkingLot lot;
     Entry entry;
     Exit exit;
+    TicketJournal journal;
+    // active tickets, kept in step with entry and exit so lookups never scan the floors
+    Map<Long,Ticket> ticketsById=new ConcurrentHashMap<>();
+    Map<String,Ticket> ticketsByVehicle=new ConcurrentHashMap<>();
 
     ParkingLotService(ParkingLot lot, Entry entry, Exit exit){
         this.lot=lot;
@@ -237,15 +700,443 @@ class ParkingLotService{
         this.exit=exit;
     }
 
+    void setAssignmentStrategy(SpotAssignmentStrategy strategy){
+        entry.strategy=strategy;
+    }
+
+    // rebuilds spot state from the journal's snapshot and tail, then journals every entry and exit
+    List<Ticket> setJournal(TicketJournal journal){
+        this.journal=journal;
+        List<Ticket> recovered=journal.recover(lot);
+        for(Ticket ticket:recovered){
+            ticketsById.put(ticket.ticketId,ticket);
+            ticketsByVehicle.put(ticket.vehicle.getVehicleId(),ticket);
+        }
+        journal.scheduleSnapshots(lot,SNAPSHOT_INTERVAL_MILLIS);
+        return recovered;
+    }
+
+    Ticket findTicket(long ticketId){
+        return ticketsById.get(ticketId);
+    }
+
+    Ticket findTicket(String vehicleNo){
+        return ticketsByVehicle.get(vehicleNo);
+    }
+
     Ticket enterVehicle(String vehicleNo, VehicleType type){
         Vehicle vehicle=VehicleFactory.createFactory(vehicleNo,type);
-        return entry.issueTicket(vehicle,lot);
+        return admit(vehicle);
+    }
+
+    Ticket enterVehicle(String vehicleNo, VehicleType type, boolean electric){
+        Vehicle vehicle=VehicleFactory.createFactory(vehicleNo,type,electric);
+        return admit(vehicle);
     }
 
     void exitVehicle(Ticket ticket, PaymentMode mode){
+        // removing from the index first means a ticket can only be exited once, even from two gates
+        if(ticket!=null && !ticketsById.remove(ticket.ticketId,ticket)){
+            System.out.println("Ticket is not active");
+            return;
+        }
+        if(ticket!=null) ticketsByVehicle.remove(ticket.vehicle.getVehicleId(),ticket);
+
         exit.makePayment(ticket,mode);
+        if(ticket!=null && journal!=null){
+            journal.awaitDurable(journal.append(TicketJournal.EXIT,ticket,System.currentTimeMillis()));
+        }
         return;
     }
+
+    // lost-ticket exit: the vehicle number is enough to find the spot
+    Ticket exitByVehicleNumber(String vehicleNo, PaymentMode mode){
+        Ticket ticket=ticketsByVehicle.get(vehicleNo);
+        if(ticket==null){
+            System.out.println("No active ticket for vehicle "+vehicleNo);
+            return null;
+        }
+        exitVehicle(ticket,mode);
+        return ticket;
+    }
+
+    private Ticket admit(Vehicle vehicle){
+        if(journal!=null && !TicketJournal.canRecord(vehicle)){
+            System.out.println("Vehicle number "+vehicle.getVehicleId()+" is not valid");
+            return null;
+        }
+        Ticket ticket=entry.issueTicket(vehicle,lot);
+        if(ticket==null) return null;
+
+        // by id first: whoever finds the ticket by vehicle number must also find it active by id
+        ticketsById.put(ticket.ticketId,ticket);
+        if(ticketsByVehicle.putIfAbsent(vehicle.getVehicleId(),ticket)!=null){
+            ticketsById.remove(ticket.ticketId,ticket);
+            ticket.spot.freeSpot();
+            System.out.println("Vehicle "+vehicle.getVehicleId()+" is already parked");
+            return null;
+        }
+
+        if(journal!=null){
+            long position;
+            try{
+                position=journal.append(TicketJournal.ENTER,ticket,ticket.entryTime);
+            }
+            catch (RuntimeException e){
+                // not journaled, so the entry must not stand either
+                ticketsById.remove(ticket.ticketId,ticket);
+                ticketsByVehicle.remove(vehicle.getVehicleId(),ticket);
+                ticket.spot.freeSpot();
+                throw e;
+            }
+            journal.awaitDurable(position);
+        }
+        return ticket;
+    }
+}
+
+/* ======= Ticket Journal ======= */
+
+/*
+ Append-only, memory-mapped log of enter/exit events. Records are fixed width:
+ | event 1 | vehicle type 1 | electric 1 | vehicle no length 1 | floor 4 | spot 4 | unused 4 |
+ | ticket id 8 | timestamp 8 | vehicle no 16 |
+ A zero event byte marks the end of the log. Writers wait in awaitDurable() and a single flusher
+ thread forces the mapping for everyone who arrived in the same commit window (group commit).
+ */
+class TicketJournal{
+    static final byte ENTER=1;
+    static final byte EXIT=2;
+    static final int RECORD_SIZE=48;
+    static final int VEHICLE_NO_BYTES=16;
+    static final long SEGMENT_SIZE=(long)RECORD_SIZE<<20;
+    static final int SNAPSHOT_MAGIC=0x504C4A31;
+
+    final Path dir;
+    final Path snapshotFile;
+    final long commitIntervalMillis;
+    final Thread flusher;
+    final ScheduledExecutorService snapshotter=Executors.newSingleThreadScheduledExecutor(runnable->{
+        Thread thread=new Thread(runnable,"ticket-journal-snapshotter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the log is a chain of files; a snapshot starts a new one and the older ones are deleted
+    FileChannel channel;
+    long generation;
+    // logical position where the current file starts, positions keep growing across files
+    long fileBase;
+    MappedByteBuffer segment;
+    long segmentBase;
+    long position;
+    long durablePosition;
+    boolean closed;
+
+    TicketJournal(Path dir, long commitIntervalMillis){
+        this.commitIntervalMillis=commitIntervalMillis;
+        this.dir=dir;
+        this.snapshotFile=dir.resolve("snapshot.bin");
+        try{
+            Files.createDirectories(dir);
+            this.generation=Math.max(snapshotGeneration(),latestGeneration());
+            this.channel=openGeneration(generation);
+            this.position=findEnd();
+            this.durablePosition=position;
+            mapSegment(position-position%SEGMENT_SIZE);
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        this.flusher=new Thread(this::flushLoop,"ticket-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    synchronized long append(byte event, Ticket ticket, long timestamp){
+        if(closed) throw new IllegalStateException("Journal closed");
+        try{
+            if(position-segmentBase==SEGMENT_SIZE){
+                segment.force();
+                durablePosition=position;
+                mapSegment(position);
+            }
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        writeRecord(segment,(int)(position-segmentBase),event,ticket,timestamp);
+        position+=RECORD_SIZE;
+        notifyAll();
+        return position;
+    }
+
+    synchronized void awaitDurable(long upTo){
+        boolean interrupted=false;
+        while(durablePosition<upTo && !closed){
+            try{
+                wait();
+            }
+            catch (InterruptedException e){
+                interrupted=true;
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+    }
+
+    void scheduleSnapshots(ParkingLot lot, long intervalMillis){
+        snapshotter.scheduleWithFixedDelay(()->writeSnapshot(lot),intervalMillis,intervalMillis,TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     Writes the occupied spots and compacts the log. Under the lock the journal switches to a new file
+     and the spots are read; spot state always changes before its event is appended, so everything in
+     the older files is already reflected in the snapshot. Once the snapshot is on disk they are deleted,
+     and recovery replays only the files from the snapshot's generation on.
+     */
+    void writeSnapshot(ParkingLot lot){
+        long snapshotGeneration;
+        List<Ticket> active=new ArrayList<>();
+        synchronized (this){
+            if(closed) return;
+            try{
+                segment.force();
+                durablePosition=position;
+                notifyAll();
+                channel.close();
+                generation++;
+                channel=openGeneration(generation);
+                fileBase=position;
+                mapSegment(position);
+            }
+            catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+            snapshotGeneration=generation;
+            for(Floor floor:lot.getFloors()){
+                for(Spot spot:floor.spots){
+                    Ticket ticket=spot.ticket;
+                    if(ticket!=null && spot.getSpotStatus()==SpotStatus.Occupied) active.add(ticket);
+                }
+            }
+        }
+
+        ByteBuffer buffer=ByteBuffer.allocate(16+active.size()*RECORD_SIZE);
+        buffer.putInt(SNAPSHOT_MAGIC).putLong(snapshotGeneration).putInt(active.size());
+        for(Ticket ticket:active){
+            writeRecord(buffer,buffer.position(),ENTER,ticket,ticket.entryTime);
+            buffer.position(buffer.position()+RECORD_SIZE);
+        }
+        buffer.flip();
+
+        Path tmp=snapshotFile.resolveSibling(snapshotFile.getFileName()+".tmp");
+        try(FileChannel out=FileChannel.open(tmp,StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.WRITE)){
+            while(buffer.hasRemaining()) out.write(buffer);
+            out.force(true);
+            Files.move(tmp,snapshotFile,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+            for(long older=snapshotGeneration-1;older>=0 && Files.deleteIfExists(journalFile(older));older--){
+            }
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // events are applied idempotently, so a snapshot that raced a few later events is still safe to replay over
+    List<Ticket> recover(ParkingLot lot){
+        try{
+            long from=0;
+            if(Files.exists(snapshotFile)){
+                ByteBuffer snapshot=ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+                if(snapshot.getInt()!=SNAPSHOT_MAGIC) throw new IllegalStateException("Corrupt snapshot");
+                from=snapshot.getLong();
+                int count=snapshot.getInt();
+                for(int i=0;i<count;i++){
+                    apply(lot,snapshot,16+i*RECORD_SIZE);
+                }
+            }
+
+            long current;
+            long end;
+            synchronized (this){
+                current=generation;
+                end=position-fileBase;
+            }
+            // a crash between switching files and writing the snapshot leaves more than one file to replay
+            for(long gen=from;gen<=current;gen++){
+                Path file=journalFile(gen);
+                if(!Files.exists(file)) continue;
+                try(FileChannel log=FileChannel.open(file,StandardOpenOption.READ)){
+                    long limit=gen==current ? end : log.size();
+                    for(long base=0;base<limit;base+=SEGMENT_SIZE){
+                        MappedByteBuffer tail=log.map(FileChannel.MapMode.READ_ONLY,base,Math.min(SEGMENT_SIZE,limit-base));
+                        for(int off=0;off+RECORD_SIZE<=tail.limit() && tail.get(off)!=0;off+=RECORD_SIZE){
+                            apply(lot,tail,off);
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        List<Ticket> active=new ArrayList<>();
+        for(Floor floor:lot.getFloors()){
+            for(Spot spot:floor.spots){
+                if(spot.ticket!=null) active.add(spot.ticket);
+            }
+        }
+        return active;
+    }
+
+    void close(){
+        snapshotter.shutdownNow();
+        synchronized (this){
+            closed=true;
+            segment.force();
+            durablePosition=position;
+            notifyAll();
+        }
+        try{
+            flusher.join();
+            channel.close();
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushLoop(){
+        try{
+            while(true){
+                synchronized (this){
+                    while(durablePosition==position && !closed) wait();
+                    if(closed) return;
+                }
+                // appends that arrive while a force is running ride along in the next one;
+                // an optional linger makes the batches bigger at the cost of latency
+                if(commitIntervalMillis>0) Thread.sleep(commitIntervalMillis);
+
+                MappedByteBuffer pending;
+                long from;
+                long target;
+                synchronized (this){
+                    if(closed) return;
+                    pending=segment;
+                    from=Math.max(durablePosition,segmentBase)-segmentBase;
+                    target=position;
+                }
+                // only the pages written since the last commit need to reach the disk
+                pending.force((int)from,(int)(target-segmentBase-from));
+                synchronized (this){
+                    if(target>durablePosition) durablePosition=target;
+                    notifyAll();
+                }
+            }
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void apply(ParkingLot lot, ByteBuffer buffer, int off){
+        byte event=buffer.get(off);
+        VehicleType type=VehicleType.values()[buffer.get(off+1)];
+        boolean electric=buffer.get(off+2)!=0;
+        byte[] vehicleNo=new byte[buffer.get(off+3)];
+        Spot spot=lot.getFloors().get(buffer.getInt(off+4)).spots.get(buffer.getInt(off+8));
+        long ticketId=buffer.getLong(off+16);
+        long timestamp=buffer.getLong(off+24);
+        for(int i=0;i<vehicleNo.length;i++){
+            vehicleNo[i]=buffer.get(off+32+i);
+        }
+
+        if(event==ENTER){
+            if(spot.ticket!=null && spot.ticket.ticketId==ticketId) return;
+            Vehicle vehicle=VehicleFactory.createFactory(new String(vehicleNo,StandardCharsets.US_ASCII),type,electric);
+            spot.assignVehicle(vehicle);
+            spot.ticket=new Ticket(ticketId,vehicle,spot,timestamp);
+        }
+        else if(event==EXIT){
+            if(spot.ticket!=null && spot.ticket.ticketId==ticketId) spot.freeSpot();
+        }
+    }
+
+    // checked before a spot is claimed, so a vehicle the journal cannot record never takes one
+    static boolean canRecord(Vehicle vehicle){
+        String vehicleNo=vehicle.getVehicleId();
+        return vehicleNo.length()<=VEHICLE_NO_BYTES && StandardCharsets.US_ASCII.newEncoder().canEncode(vehicleNo);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, int off, byte event, Ticket ticket, long timestamp){
+        byte[] vehicleNo=ticket.vehicle.getVehicleId().getBytes(StandardCharsets.US_ASCII);
+        if(vehicleNo.length>VEHICLE_NO_BYTES) throw new IllegalArgumentException("Vehicle number too long");
+
+        buffer.put(off+1,(byte)ticket.vehicle.getVehicleType().ordinal());
+        buffer.put(off+2,(byte)(ticket.vehicle.isElectric() ? 1 : 0));
+        buffer.put(off+3,(byte)vehicleNo.length);
+        buffer.putInt(off+4,ticket.spot.floor.level);
+        buffer.putInt(off+8,ticket.spot.position);
+        buffer.putLong(off+16,ticket.ticketId);
+        buffer.putLong(off+24,timestamp);
+        for(int i=0;i<vehicleNo.length;i++){
+            buffer.put(off+32+i,vehicleNo[i]);
+        }
+        // the event byte goes last so a torn record reads as end-of-log
+        buffer.put(off,event);
+    }
+
+    private long findEnd() throws IOException{
+        long size=channel.size();
+        for(long base=0;base<size;base+=SEGMENT_SIZE){
+            MappedByteBuffer view=channel.map(FileChannel.MapMode.READ_ONLY,base,Math.min(SEGMENT_SIZE,size-base));
+            for(int off=0;off+RECORD_SIZE<=view.limit();off+=RECORD_SIZE){
+                if(view.get(off)==0) return base+off;
+            }
+        }
+        return size-size%RECORD_SIZE;
+    }
+
+    private void mapSegment(long base) throws IOException{
+        this.segment=channel.map(FileChannel.MapMode.READ_WRITE,base-fileBase,SEGMENT_SIZE);
+        this.segmentBase=base;
+    }
+
+    private Path journalFile(long gen){
+        return dir.resolve("journal-"+gen+".log");
+    }
+
+    private FileChannel openGeneration(long gen) throws IOException{
+        return FileChannel.open(journalFile(gen),StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+    }
+
+    private long snapshotGeneration() throws IOException{
+        if(!Files.exists(snapshotFile)) return 0;
+        try(FileChannel in=FileChannel.open(snapshotFile,StandardOpenOption.READ)){
+            ByteBuffer header=ByteBuffer.allocate(12);
+            while(header.hasRemaining() && in.read(header)>=0){
+            }
+            header.flip();
+            return header.remaining()==12 && header.getInt()==SNAPSHOT_MAGIC ? header.getLong() : 0;
+        }
+    }
+
+    private long latestGeneration() throws IOException{
+        long latest=0;
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(dir,"journal-*.log")){
+            for(Path file:files){
+                String name=file.getFileName().toString();
+                latest=Math.max(latest,Long.parseLong(name.substring(8,name.length()-4)));
+            }
+        }
+        return latest;
+    }
 }
 
 /* ======= Payment Module ======= */
@@ -276,16 +1167,977 @@ class UPIPayment implements  Payment{
 }
 
 class PaymentFactory{
+    // payment methods hold no state, one instance each is shared by every gate
+    static final Payment UPI_PAYMENT=new UPIPayment();
+    static final Payment CARD_PAYMENT=new CardPayment();
+    static final Payment CASH_PAYMENT=new CashPayment();
+
     static Payment getPaymentMethod(PaymentMode mode){
         switch (mode){
-            case UPI: return new UPIPayment();
-            case CARD: return new CardPayment();
-            case CASH: return new CashPayment();
+            case UPI: return UPI_PAYMENT;
+            case CARD: return CARD_PAYMENT;
+            case CASH: return CASH_PAYMENT;
             default: throw new IllegalArgumentException("Invalid Payment Mode");
         }
     }
 }
 
+class PaymentRequest{
+    Ticket ticket;
+    PaymentMode mode;
+    double amount;
+    int attempts;
+    CompletableFuture<Boolean> result=new CompletableFuture<>();
+
+    PaymentRequest(Ticket ticket, PaymentMode mode, double amount){
+        this.ticket=ticket;
+        this.mode=mode;
+        this.amount=amount;
+    }
+}
+
+interface PaymentGateway{
+    // one result per request, in order; the ticket id is the idempotency key for retried requests
+    boolean[] charge(List<PaymentRequest> batch);
+}
+
+// local stand-in for the provider: one round trip per batch, optional random failures
+class LocalPaymentGateway implements PaymentGateway{
+    long latencyMillis;
+    double failureRate;
+    // tickets already charged, a repeated request for one of them succeeds without charging again
+    Set<Long> charged=ConcurrentHashMap.newKeySet();
+
+    LocalPaymentGateway(long latencyMillis, double failureRate){
+        this.latencyMillis=latencyMillis;
+        this.failureRate=failureRate;
+    }
+
+    @Override
+    public boolean[] charge(List<PaymentRequest> batch){
+        try{
+            Thread.sleep(latencyMillis);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return new boolean[batch.size()];
+        }
+
+        boolean[] results=new boolean[batch.size()];
+        for(int i=0;i<batch.size();i++){
+            PaymentRequest request=batch.get(i);
+            if(charged.contains(request.ticket.ticketId)){
+                results[i]=true;
+                continue;
+            }
+            if(ThreadLocalRandom.current().nextDouble()<failureRate) continue;
+            if(charged.add(request.ticket.ticketId)) PaymentFactory.getPaymentMethod(request.mode).pay(request.amount);
+            results[i]=true;
+        }
+        return results;
+    }
+}
+
+/*
+ Exit gates hand payments to a bounded queue and move on. A dispatcher thread groups queued
+ payments into batches for the gateway, a fixed pool of senders keeps a bounded number of batches
+ in flight: the dispatcher takes a batch only once a sender is free, so it never calls the gateway
+ itself and the queue is the only buffer. Failed or timed-out payments are retried with backoff. Payments that still fail
+ are compensated by recording the amount as outstanding dues against the vehicle.
+ */
+class PaymentProcessor{
+    PaymentGateway gateway;
+    int batchSize;
+    long timeoutMillis;
+    int maxAttempts;
+    long retryBackoffMillis;
+    BlockingQueue<PaymentRequest> queue;
+    ExecutorService senders;
+    Semaphore freeSenders;
+    ScheduledExecutorService retryScheduler;
+    Thread dispatcher;
+    volatile boolean running=true;
+    AtomicInteger batchesInFlight=new AtomicInteger();
+    // batches that outlived the timeout, they are settled on the gateway's late answer
+    AtomicInteger timeouts=new AtomicInteger();
+    Set<PaymentRequest> awaitingRetry=ConcurrentHashMap.newKeySet();
+    Map<String,Double> outstandingDues=new ConcurrentHashMap<>();
+
+    PaymentProcessor(PaymentGateway gateway, int queueCapacity, int batchSize, int senderThreads,
+                     long timeoutMillis, int maxAttempts, long retryBackoffMillis){
+        this.gateway=gateway;
+        this.batchSize=batchSize;
+        this.timeoutMillis=timeoutMillis;
+        this.maxAttempts=maxAttempts;
+        this.retryBackoffMillis=retryBackoffMillis;
+        this.queue=new ArrayBlockingQueue<>(queueCapacity);
+        this.senders=Executors.newFixedThreadPool(senderThreads,daemonThreads("payment-sender"));
+        this.freeSenders=new Semaphore(senderThreads);
+        this.retryScheduler=Executors.newSingleThreadScheduledExecutor(daemonThreads("payment-retry"));
+        this.dispatcher=daemonThreads("payment-dispatcher").newThread(this::dispatchLoop);
+        dispatcher.start();
+    }
+
+    CompletableFuture<Boolean> submit(Ticket ticket, PaymentMode mode, double amount){
+        PaymentRequest request=new PaymentRequest(ticket,mode,amount);
+        try{
+            // a full queue pushes back on the gate rather than growing without bound
+            queue.put(request);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            compensate(request);
+        }
+        return request.result;
+    }
+
+    double getOutstandingDues(String vehicleNo){
+        return outstandingDues.getOrDefault(vehicleNo,0.0);
+    }
+
+    /*
+     Lets queued, in-flight and retrying payments settle first. Then retries stop before the dispatcher
+     does, so no retry can slip into the queue after its last drain, and whatever is left is compensated.
+     */
+    void shutdown(){
+        long deadline=System.currentTimeMillis()+(timeoutMillis+retryBackoffMillis)*maxAttempts;
+        try{
+            while(System.currentTimeMillis()<deadline
+                    && (!queue.isEmpty() || batchesInFlight.get()>0 || !awaitingRetry.isEmpty())){
+                Thread.sleep(5);
+            }
+            running=false;
+            retryScheduler.shutdownNow();
+            retryScheduler.awaitTermination(timeoutMillis,TimeUnit.MILLISECONDS);
+            for(PaymentRequest request:awaitingRetry){
+                if(awaitingRetry.remove(request)) compensate(request);
+            }
+            dispatcher.join();
+            senders.shutdown();
+            senders.awaitTermination(timeoutMillis*maxAttempts+retryBackoffMillis*maxAttempts,TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        List<PaymentRequest> left=new ArrayList<>();
+        queue.drainTo(left);
+        for(PaymentRequest request:left){
+            compensate(request);
+        }
+    }
+
+    private void dispatchLoop(){
+        while(running || !queue.isEmpty()){
+            List<PaymentRequest> batch=new ArrayList<>(batchSize);
+            try{
+                if(!freeSenders.tryAcquire(50,TimeUnit.MILLISECONDS)) continue;
+                PaymentRequest first=queue.poll(50,TimeUnit.MILLISECONDS);
+                if(first==null){
+                    freeSenders.release();
+                    continue;
+                }
+                batch.add(first);
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch,batchSize-1);
+
+            batchesInFlight.incrementAndGet();
+            // the timeout is armed before the call starts, so it runs from the hand-off, whatever the sender does
+            CompletableFuture<boolean[]> call=new CompletableFuture<>();
+            CompletableFuture<boolean[]> timed=call.copy().orTimeout(timeoutMillis,TimeUnit.MILLISECONDS);
+            senders.execute(()->{
+                try{
+                    call.complete(gateway.charge(batch));
+                }
+                catch (RuntimeException e){
+                    call.completeExceptionally(e);
+                }
+                finally{
+                    freeSenders.release();
+                }
+            });
+            timed.whenComplete((results,error)->{
+                if(error instanceof TimeoutException){
+                    // the gateway call is still running and may yet charge, retrying now could charge twice
+                    timeouts.incrementAndGet();
+                    call.whenComplete((late,lateError)->settle(batch,late,lateError));
+                }
+                else{
+                    settle(batch,results,error);
+                }
+            });
+        }
+    }
+
+    private void settle(List<PaymentRequest> batch, boolean[] results, Throwable error){
+        for(int i=0;i<batch.size();i++){
+            PaymentRequest request=batch.get(i);
+            if(error==null && results[i]){
+                request.result.complete(true);
+                continue;
+            }
+
+            request.attempts++;
+            if(request.attempts<maxAttempts && running){
+                awaitingRetry.add(request);
+                scheduleRetry(request,retryBackoffMillis*request.attempts);
+            }
+            else{
+                compensate(request);
+            }
+        }
+        batchesInFlight.decrementAndGet();
+    }
+
+    // a retry that finds the queue full backs off again instead of counting as another failed attempt
+    private void scheduleRetry(PaymentRequest request, long delayMillis){
+        try{
+            retryScheduler.schedule(()->{
+                if(!awaitingRetry.contains(request)) return;
+                if(queue.offer(request)) awaitingRetry.remove(request);
+                else scheduleRetry(request,retryBackoffMillis);
+            },delayMillis,TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e){
+            // shutting down, the retry will not happen
+            if(awaitingRetry.remove(request)) compensate(request);
+        }
+    }
+
+    private void compensate(PaymentRequest request){
+        outstandingDues.merge(request.ticket.vehicle.getVehicleId(),request.amount,Double::sum);
+        System.out.println("Payment failed for "+request.ticket.vehicle.getVehicleId()+", recorded as outstanding dues");
+        request.result.complete(false);
+    }
+
+    private static java.util.concurrent.ThreadFactory daemonThreads(String name){
+        return runnable->{
+            Thread thread=new Thread(runnable,name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
+
+
+/*
+ Spot allocation under contention: gate threads, each with its own Entry, claim and release spots
+ in a small lot as fast as they can. A spot handed to two gates at once, or a ticket id issued twice,
+ counts as a failure. Then measures allocations per second for growing numbers of gates.
+ Run with `java -cp <classes> AllocationStress [gates] [allocationsPerGate]`.
+ */
+class AllocationStress{
+    public static void main(String[] args) throws Exception{
+        int gates=args.length>0 ? Integer.parseInt(args[0]) : 64;
+        int perGate=args.length>1 ? Integer.parseInt(args[1]) : 20_000;
+
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        long[] result=run(gates,perGate,true);
+        System.setOut(console);
+        System.out.printf("%d gates: %d allocations, %d double allocations, %d duplicate ticket ids, %d spots left occupied%n",
+                gates,result[0],result[1],result[2],result[3]);
+        if(result[1]!=0 || result[2]!=0 || result[3]!=0) throw new IllegalStateException("Allocation stress failed");
+
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        List<String> lines=new ArrayList<>();
+        for(int threads=1;threads<=gates;threads*=2){
+            long start=System.nanoTime();
+            long allocations=run(threads,perGate,false)[0];
+            lines.add(String.format("%2d gates: %.0f allocations/s",threads,allocations/((System.nanoTime()-start)/1e9)));
+        }
+        System.setOut(console);
+        System.out.println(Runtime.getRuntime().availableProcessors()+" cores");
+        for(String line:lines){
+            System.out.println(line);
+        }
+    }
+
+    // allocations, double allocations, duplicate ticket ids, spots still occupied at the end
+    private static long[] run(int gates, int perGate, boolean check) throws Exception{
+        List<Floor> floors=new ArrayList<>();
+        for(int f=0;f<4;f++){
+            List<Spot> spots=new ArrayList<>();
+            for(int i=0;i<250;i++){
+                spots.add(new Spot("S"+f+"-"+i,SpotStatus.Available,VehicleType.Car));
+            }
+            floors.add(new Floor("F"+f,spots));
+        }
+        ParkingLot lot=new ParkingLot(floors);
+        Map<Spot,Ticket> holders=new ConcurrentHashMap<>();
+        Set<Long> ticketIds=ConcurrentHashMap.newKeySet();
+        LongAdder allocations=new LongAdder();
+        LongAdder doubles=new LongAdder();
+        LongAdder duplicateIds=new LongAdder();
+
+        List<Entry> entries=new ArrayList<>();
+        for(int g=0;g<gates;g++){
+            entries.add(new Entry());
+        }
+        CountDownLatch start=new CountDownLatch(1);
+        List<Thread> threads=new ArrayList<>();
+        for(Entry entry:entries){
+            Thread thread=new Thread(()->{
+                Vehicle vehicle=VehicleFactory.createFactory("V",VehicleType.Car);
+                try{
+                    start.await();
+                }
+                catch (InterruptedException e){
+                    return;
+                }
+                for(int i=0;i<perGate;i++){
+                    Ticket ticket=entry.issueTicket(vehicle,lot);
+                    if(ticket==null) continue;
+                    allocations.increment();
+                    if(check){
+                        if(holders.putIfAbsent(ticket.spot,ticket)!=null) doubles.increment();
+                        if(!ticketIds.add(ticket.ticketId)) duplicateIds.increment();
+                        holders.remove(ticket.spot,ticket);
+                    }
+                    ticket.spot.freeSpot();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread:threads){
+            thread.join();
+        }
+        for(Entry entry:entries){
+            entry.release();
+        }
+
+        long occupied=0;
+        for(Floor floor:floors){
+            occupied+=floor.getOccupiedCount(VehicleType.Car);
+        }
+        return new long[]{allocations.sum(),doubles.sum(),duplicateIds.sum(),occupied};
+    }
+}
+
+/*
+ Concurrent startup of the ParkingLot singleton: many threads race the first getInstance and must
+ all get the same lot. Then times the hot getInstance() read. Run with `java -cp <classes> SingletonStartupCheck`.
+ */
+class SingletonStartupCheck{
+    static volatile ParkingLot sink;
+
+    public static void main(String[] args) throws Exception{
+        int threads=64;
+        Set<ParkingLot> seen=ConcurrentHashMap.newKeySet();
+        CountDownLatch start=new CountDownLatch(1);
+        List<Thread> starters=new ArrayList<>();
+        for(int t=0;t<threads;t++){
+            Thread thread=new Thread(()->{
+                List<Floor> floors=new ArrayList<>();
+                floors.add(new Floor("F1",new ArrayList<>()));
+                try{
+                    start.await();
+                }
+                catch (InterruptedException e){
+                    return;
+                }
+                seen.add(ParkingLot.getInstance(floors));
+            });
+            starters.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread:starters){
+            thread.join();
+        }
+        System.out.println(threads+" threads starting up saw "+seen.size()+" parking lot instance(s)");
+        if(seen.size()!=1) throw new IllegalStateException("More than one ParkingLot created");
+
+        int iterations=100_000_000;
+        for(int round=0;round<3;round++){
+            long begin=System.nanoTime();
+            for(int i=0;i<iterations;i++){
+                sink=ParkingLot.getInstance();
+            }
+            System.out.printf("getInstance(): %.2f ns per call%n",(double)(System.nanoTime()-begin)/iterations);
+        }
+    }
+}
+
+/*
+ Allocation cost in a big, nearly full lot: 100k car spots over 10 floors are filled to 95%, then
+ cars keep leaving from random spots and arriving, and each arrival's spot lookup is timed. The
+ free-spot index is measured against a linear scan of the floors' spot lists.
+ Run with `java -cp <classes> SpotIndexBenchmark [spots] [occupancy percent] [arrivals]`.
+ */
+class SpotIndexBenchmark{
+    static final int FLOORS=10;
+
+    public static void main(String[] args){
+        int spotCount=args.length>0 ? Integer.parseInt(args[0]) : 100_000;
+        int occupancy=args.length>1 ? Integer.parseInt(args[1]) : 95;
+        int arrivals=args.length>2 ? Integer.parseInt(args[2]) : 200_000;
+
+        System.out.printf("%d spots at %d%% occupancy%n",spotCount,occupancy);
+        // first round warms up the JIT and is thrown away
+        for(int round=0;round<2;round++){
+            long[] indexed=run(spotCount,occupancy,arrivals,true);
+            long[] scanned=run(spotCount,occupancy,arrivals/100,false);
+            if(round==0) continue;
+            print("free-spot index",indexed);
+            print("linear scan",scanned);
+        }
+    }
+
+    private static long[] run(int spotCount, int occupancy, int arrivals, boolean indexed){
+        List<Floor> floors=new ArrayList<>();
+        for(int f=0;f<FLOORS;f++){
+            List<Spot> spots=new ArrayList<>();
+            for(int i=0;i<spotCount/FLOORS;i++){
+                spots.add(new Spot("S"+f+"-"+i,SpotStatus.Available,VehicleType.Car));
+            }
+            floors.add(new Floor("F"+f,spots));
+        }
+        SpotAssignmentStrategy strategy=new FirstAvailableStrategy();
+        Vehicle car=VehicleFactory.createFactory("V",VehicleType.Car);
+        Random random=new Random(1);
+        Spot[] parked=new Spot[spotCount*occupancy/100];
+        for(int i=0;i<parked.length;i++){
+            parked[i]=strategy.assignSpot(car,floors);
+        }
+        // shuffled so departures come from all over the lot, not only the front
+        for(int i=parked.length-1;i>0;i--){
+            int j=random.nextInt(i+1);
+            Spot spot=parked[i];
+            parked[i]=parked[j];
+            parked[j]=spot;
+        }
+
+        long[] latencies=new long[arrivals];
+        for(int i=0;i<arrivals;i++){
+            int leaving=random.nextInt(parked.length);
+            parked[leaving].freeSpot();
+            long start=System.nanoTime();
+            Spot spot=indexed ? strategy.assignSpot(car,floors) : scan(car,floors);
+            latencies[i]=System.nanoTime()-start;
+            if(spot==null) throw new IllegalStateException("No spot found in a lot with free spots");
+            parked[leaving]=spot;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    // the lookup before the index: walk every floor's list until a free spot of the right type turns up
+    private static Spot scan(Vehicle vehicle, List<Floor> floors){
+        for(Floor floor:floors){
+            for(Spot spot:floor.spots){
+                if(spot.getVehicleType()==vehicle.getVehicleType() && spot.getSpotStatus()==SpotStatus.Available){
+                    spot.assignVehicle(vehicle);
+                    return spot;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void print(String name, long[] sorted){
+        System.out.printf("%-16s %8d arrivals  p50 %s  p99 %s  p99.9 %s  max %s%n",name,sorted.length,
+                micros(sorted,0.50),micros(sorted,0.99),micros(sorted,0.999),micros(sorted,1.0));
+    }
+
+    private static String micros(long[] sorted, double percentile){
+        int at=(int)Math.min(sorted.length-1,Math.ceil(percentile*sorted.length)-1);
+        return String.format("%.2fus",sorted[Math.max(0,at)]/1000.0);
+    }
+}
+
+/*
+ Allocation of ticket creation, before and after the per-gate id generator: the old path minted a
+ random UUID string and a Date per ticket, the new one a 64-bit id and a long timestamp. Gate threads
+ create tickets in a loop; reports tickets/s, bytes per ticket and the allocation rate for both, plus
+ the whole issueTicket path (spot claim included) for the new one.
+ Run with `java -cp <classes> TicketAllocationBenchmark [gates] [ticketsPerGate]`.
+ */
+class TicketAllocationBenchmark{
+    // ticket as it was before: random UUID id and a Date
+    static class LegacyTicket{
+        String ticketId;
+        Vehicle vehicle;
+        Spot spot;
+        Date entryTime;
+
+        LegacyTicket(String ticketId, Vehicle vehicle, Spot spot, Date entryTime){
+            this.ticketId=ticketId;
+            this.vehicle=vehicle;
+            this.spot=spot;
+            this.entryTime=entryTime;
+        }
+    }
+
+    static final String[] PATHS={"UUID + Date","64-bit id","issueTicket"};
+
+    public static void main(String[] args) throws Exception{
+        int maxGates=args.length>0 ? Integer.parseInt(args[0]) : 8;
+        int perGate=args.length>1 ? Integer.parseInt(args[1]) : 500_000;
+
+        List<Floor> floors=new ArrayList<>();
+        List<Spot> spots=new ArrayList<>();
+        for(int i=0;i<1000;i++){
+            spots.add(new Spot("S"+i,SpotStatus.Available,VehicleType.Car));
+        }
+        floors.add(new Floor("F1",spots));
+        ParkingLot lot=new ParkingLot(floors);
+
+        // first round warms up the JIT and is thrown away
+        for(int round=0;round<2;round++){
+            for(int gates=1;gates<=maxGates;gates*=2){
+                for(int path=0;path<PATHS.length;path++){
+                    double[] result=run(path,gates,perGate,lot);
+                    if(round==0) continue;
+                    System.out.printf("%d gates, %-12s %10.0f tickets/s  %6.1f bytes/ticket  %8.1f MB/s allocated%n",
+                            gates,PATHS[path],result[0],result[1],result[0]*result[1]/1e6);
+                }
+            }
+        }
+    }
+
+    // tickets per second, bytes allocated per ticket
+    private static double[] run(int path, int gates, int perGate, ParkingLot lot) throws Exception{
+        com.sun.management.ThreadMXBean threadBean=(com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+        LongAdder allocatedBytes=new LongAdder();
+        CountDownLatch start=new CountDownLatch(1);
+        List<Entry> entries=new ArrayList<>();
+        List<Thread> threads=new ArrayList<>();
+        for(int g=0;g<gates;g++){
+            Entry entry=new Entry();
+            entries.add(entry);
+            Thread thread=new Thread(()->{
+                Vehicle vehicle=VehicleFactory.createFactory("V",VehicleType.Car);
+                Spot spot=lot.getFloors().get(0).spots.get(0);
+                // tickets escape into the service's maps in real use, the sink keeps them from being optimized away
+                Object[] sink=new Object[1024];
+                try{
+                    start.await();
+                }
+                catch (InterruptedException e){
+                    return;
+                }
+                long before=threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for(int i=0;i<perGate;i++){
+                    if(path==0){
+                        sink[i&1023]=new LegacyTicket(UUID.randomUUID().toString(),vehicle,spot,new Date());
+                    }
+                    else if(path==1){
+                        long now=System.currentTimeMillis();
+                        sink[i&1023]=new Ticket(entry.idGenerator.nextId(now),vehicle,spot,now);
+                    }
+                    else{
+                        Ticket ticket=entry.issueTicket(vehicle,lot);
+                        sink[i&1023]=ticket;
+                        ticket.spot.freeSpot();
+                    }
+                }
+                allocatedBytes.add(threadBean.getThreadAllocatedBytes(Thread.currentThread().getId())-before);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long begin=System.nanoTime();
+        start.countDown();
+        for(Thread thread:threads){
+            thread.join();
+        }
+        double seconds=(System.nanoTime()-begin)/1e9;
+        for(Entry entry:entries){
+            entry.release();
+        }
+        long tickets=(long)gates*perGate;
+        return new double[]{tickets/seconds,(double)allocatedBytes.sum()/tickets};
+    }
+}
+
+/*
+ Allocation and release latency per assignment strategy. Each strategy gets a fresh lot of 8 floors
+ with ramps at growing distances and 1 in 10 spots with an EV charger, filled to 90%; then cars, some
+ of them electric, keep leaving from random spots and arriving, and every assign and release is timed.
+ Run with `java -cp <classes> StrategyLatencyBenchmark [spotsPerFloor] [arrivals]`.
+ */
+class StrategyLatencyBenchmark{
+    static final int FLOORS=8;
+
+    public static void main(String[] args){
+        int spotsPerFloor=args.length>0 ? Integer.parseInt(args[0]) : 5_000;
+        int arrivals=args.length>1 ? Integer.parseInt(args[1]) : 200_000;
+        SpotAssignmentStrategy[] strategies={new FirstAvailableStrategy(),new NearestToGateStrategy(),
+                new FloorLoadBalancingStrategy(),new EvChargerAwareStrategy()};
+
+        System.out.printf("%d floors x %d spots at 90%% occupancy, %d arrivals%n",FLOORS,spotsPerFloor,arrivals);
+        // first round warms up the JIT and is thrown away
+        for(int round=0;round<2;round++){
+            for(SpotAssignmentStrategy strategy:strategies){
+                long[][] latencies=run(strategy,spotsPerFloor,arrivals);
+                if(round==0) continue;
+                String name=strategy.getClass().getSimpleName();
+                System.out.printf("%-26s assign  p50 %s  p99 %s  p99.9 %s  max %s%n",name,
+                        micros(latencies[0],0.50),micros(latencies[0],0.99),micros(latencies[0],0.999),micros(latencies[0],1.0));
+                System.out.printf("%-26s release p50 %s  p99 %s  p99.9 %s  max %s%n","",
+                        micros(latencies[1],0.50),micros(latencies[1],0.99),micros(latencies[1],0.999),micros(latencies[1],1.0));
+            }
+        }
+    }
+
+    // sorted assign latencies, sorted release latencies
+    private static long[][] run(SpotAssignmentStrategy strategy, int spotsPerFloor, int arrivals){
+        Random random=new Random(3);
+        List<Floor> floors=new ArrayList<>();
+        for(int f=0;f<FLOORS;f++){
+            List<Spot> spots=new ArrayList<>();
+            for(int i=0;i<spotsPerFloor;i++){
+                spots.add(new Spot("S"+f+"-"+i,SpotStatus.Available,VehicleType.Car,random.nextInt(spotsPerFloor),i%10==0));
+            }
+            floors.add(new Floor("F"+f,spots,f*100));
+        }
+        Vehicle car=VehicleFactory.createFactory("V",VehicleType.Car);
+        Vehicle ev=VehicleFactory.createFactory("E",VehicleType.Car,true);
+        Spot[] parked=new Spot[FLOORS*spotsPerFloor*9/10];
+        for(int i=0;i<parked.length;i++){
+            parked[i]=strategy.assignSpot(i%5==0 ? ev : car,floors);
+        }
+
+        long[] assign=new long[arrivals];
+        long[] release=new long[arrivals];
+        for(int i=0;i<arrivals;i++){
+            int leaving=random.nextInt(parked.length);
+            long start=System.nanoTime();
+            parked[leaving].freeSpot();
+            long mid=System.nanoTime();
+            Spot spot=strategy.assignSpot(i%5==0 ? ev : car,floors);
+            long end=System.nanoTime();
+            if(spot==null) throw new IllegalStateException("No spot found in a lot with free spots");
+            parked[leaving]=spot;
+            release[i]=mid-start;
+            assign[i]=end-mid;
+        }
+        Arrays.sort(assign);
+        Arrays.sort(release);
+        return new long[][]{assign,release};
+    }
+
+    private static String micros(long[] sorted, double percentile){
+        int at=(int)Math.min(sorted.length-1,Math.ceil(percentile*sorted.length)-1);
+        return String.format("%.2fus",sorted[Math.max(0,at)]/1000.0);
+    }
+}
+
+/*
+ Journal throughput and recovery. First, gate threads drive enter/exit through a journaled service
+ for a few seconds and the durable events per second are reported against the 50k/s target. Then
+ 10M events are journaled for a 100k spot lot, recovered into a fresh lot by replaying the log, and
+ recovered again from a snapshot; each recovery is timed and must match the live spots exactly.
+ Run with `java -cp <classes> JournalBenchmark [gates] [seconds] [events]`.
+ */
+class JournalBenchmark{
+    static final int FLOORS=10;
+    static final int SPOTS_PER_FLOOR=10_000;
+
+    public static void main(String[] args) throws Exception{
+        int gates=args.length>0 ? Integer.parseInt(args[0]) : 32;
+        int seconds=args.length>1 ? Integer.parseInt(args[1]) : 5;
+        long events=args.length>2 ? Long.parseLong(args[2]) : 10_000_000L;
+
+        java.io.PrintStream console=System.out;
+        Path dir=Files.createTempDirectory("ticket-journal");
+        try{
+            System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+            double perSecond=throughput(dir.resolve("throughput"),gates,seconds);
+            System.setOut(console);
+            System.out.printf("%d gates: %.0f durable events/s (target 50000: %s)%n",gates,perSecond,perSecond>=50_000 ? "met" : "missed");
+
+            recovery(dir.resolve("recovery"),events);
+        }
+        finally{
+            System.setOut(console);
+            try(java.util.stream.Stream<Path> files=Files.walk(dir)){
+                for(Path file:files.sorted(Comparator.reverseOrder()).toArray(Path[]::new)){
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // each gate parks and releases its own cars, every enter and exit waits for its event to be durable
+    private static double throughput(Path dir, int gates, int seconds) throws Exception{
+        ParkingLot lot=newLot();
+        ParkingLotService service=new ParkingLotService(lot,new Entry(),new Exit());
+        TicketJournal journal=new TicketJournal(dir,0);
+        service.setJournal(journal);
+
+        LongAdder journaled=new LongAdder();
+        long until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads=new ArrayList<>();
+        for(int g=0;g<gates;g++){
+            int gate=g;
+            Thread thread=new Thread(()->{
+                for(int i=0;System.nanoTime()<until;i++){
+                    Ticket ticket=service.enterVehicle("G"+gate+"-"+i,VehicleType.Car);
+                    if(ticket==null) continue;
+                    service.exitVehicle(ticket,PaymentMode.UPI);
+                    journaled.add(2);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread:threads){
+            thread.join();
+        }
+        journal.close();
+        service.entry.release();
+        return journaled.sum()/(double)seconds;
+    }
+
+    private static void recovery(Path dir, long events){
+        ParkingLot live=newLot();
+        TicketJournal journal=new TicketJournal(dir,0);
+        Random random=new Random(5);
+        Entry entry=new Entry();
+        long position=0;
+        long start=System.nanoTime();
+        for(long i=0;i<events;i++){
+            Spot spot=live.getFloors().get(random.nextInt(FLOORS)).spots.get(random.nextInt(SPOTS_PER_FLOOR));
+            long now=System.currentTimeMillis();
+            if(spot.ticket==null){
+                Vehicle vehicle=VehicleFactory.createFactory("R"+i,VehicleType.Car);
+                spot.assignVehicle(vehicle);
+                spot.ticket=new Ticket(entry.idGenerator.nextId(now),vehicle,spot,now);
+                position=journal.append(TicketJournal.ENTER,spot.ticket,now);
+            }
+            else{
+                position=journal.append(TicketJournal.EXIT,spot.ticket,now);
+                spot.freeSpot();
+            }
+        }
+        journal.awaitDurable(position);
+        System.out.printf("Journaled %d events in %.1f s%n",events,(System.nanoTime()-start)/1e9);
+        journal.close();
+        entry.release();
+
+        journal=new TicketJournal(dir,0);
+        ParkingLot replayed=newLot();
+        start=System.nanoTime();
+        int active=journal.recover(replayed).size();
+        System.out.printf("Recovered %d parked cars by replaying %d events in %.2f s%n",active,events,(System.nanoTime()-start)/1e9);
+        check(live,replayed);
+
+        journal.writeSnapshot(replayed);
+        journal.close();
+        journal=new TicketJournal(dir,0);
+        ParkingLot fromSnapshot=newLot();
+        start=System.nanoTime();
+        active=journal.recover(fromSnapshot).size();
+        System.out.printf("Recovered %d parked cars from the snapshot in %.2f s%n",active,(System.nanoTime()-start)/1e9);
+        journal.close();
+        check(live,fromSnapshot);
+    }
+
+    private static void check(ParkingLot live, ParkingLot recovered){
+        for(int f=0;f<FLOORS;f++){
+            for(int i=0;i<SPOTS_PER_FLOOR;i++){
+                Spot expected=live.getFloors().get(f).spots.get(i);
+                Spot actual=recovered.getFloors().get(f).spots.get(i);
+                long expectedId=expected.ticket==null ? 0 : expected.ticket.ticketId;
+                long actualId=actual.ticket==null ? 0 : actual.ticket.ticketId;
+                if(expected.getSpotStatus()!=actual.getSpotStatus() || expectedId!=actualId){
+                    throw new IllegalStateException("Recovered spot "+actual.getSpotId()+" differs from the live lot");
+                }
+            }
+        }
+    }
+
+    private static ParkingLot newLot(){
+        List<Floor> floors=new ArrayList<>();
+        for(int f=0;f<FLOORS;f++){
+            List<Spot> spots=new ArrayList<>(SPOTS_PER_FLOOR);
+            for(int i=0;i<SPOTS_PER_FLOOR;i++){
+                spots.add(new Spot("S"+f+"-"+i,SpotStatus.Available,VehicleType.Car));
+            }
+            floors.add(new Floor("F"+f,spots));
+        }
+        return new ParkingLot(floors);
+    }
+}
+
+/*
+ Fee computation throughput. Stays of up to three days starting anywhere in a year are priced against
+ the tariff table, first on one thread next to the old flat price lookup, then on growing numbers of
+ threads while another thread keeps hot-reloading the tariff.
+ Run with `java -cp <classes> FeeBenchmark [seconds] [max threads]`.
+ */
+class FeeBenchmark{
+    static final int STAYS=1<<16;
+
+    static volatile double sink;
+
+    public static void main(String[] args) throws Exception{
+        int seconds=args.length>0 ? Integer.parseInt(args[0]) : 2;
+        int maxThreads=args.length>1 ? Integer.parseInt(args[1]) : 8;
+
+        Random random=new Random(9);
+        VehicleType[] types=new VehicleType[STAYS];
+        long[] entryTimes=new long[STAYS];
+        long[] exitTimes=new long[STAYS];
+        long yearStart=Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+        for(int i=0;i<STAYS;i++){
+            types[i]=VehicleType.values()[random.nextInt(VehicleType.values().length)];
+            entryTimes[i]=yearStart+(long)(random.nextDouble()*365*24*3_600_000L);
+            exitTimes[i]=entryTimes[i]+(long)(random.nextDouble()*72*3_600_000L);
+        }
+
+        // first round warms up the JIT and is thrown away
+        for(int round=0;round<2;round++){
+            double flat=run(1,seconds,false,()->{
+                double total=0;
+                for(int i=0;i<STAYS;i++){
+                    total+=Pricing.getPrice(types[i]);
+                }
+                return total;
+            });
+            double tariff=run(1,seconds,false,()->{
+                double total=0;
+                for(int i=0;i<STAYS;i++){
+                    total+=Pricing.getFee(types[i],entryTimes[i],exitTimes[i]);
+                }
+                return total;
+            });
+            if(round==0) continue;
+            System.out.printf("flat price lookup  %12.0f fees/s%n",flat);
+            System.out.printf("tariff table       %12.0f fees/s%n",tariff);
+        }
+
+        for(int threads=1;threads<=maxThreads;threads*=2){
+            double perSecond=run(threads,seconds,true,()->{
+                double total=0;
+                for(int i=0;i<STAYS;i++){
+                    total+=Pricing.getFee(types[i],entryTimes[i],exitTimes[i]);
+                }
+                return total;
+            });
+            System.out.printf("%d threads, reloading %12.0f fees/s%n",threads,perSecond);
+        }
+    }
+
+    // fees per second over all threads; each call of the pass prices STAYS stays
+    private static double run(int threads, int seconds, boolean reload, java.util.function.DoubleSupplier pass) throws Exception{
+        ZoneOffset offset=ZoneId.systemDefault().getRules().getOffset(Instant.now());
+        LongAdder fees=new LongAdder();
+        long until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers=new ArrayList<>();
+        for(int t=0;t<threads;t++){
+            Thread worker=new Thread(()->{
+                double total=0;
+                while(System.nanoTime()<until){
+                    total+=pass.getAsDouble();
+                    fees.add(STAYS);
+                }
+                sink=total;
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        Thread reloader=new Thread(()->{
+            while(System.nanoTime()<until){
+                Pricing.reloadTariff(TariffTable.defaultTariff(offset));
+                try{
+                    Thread.sleep(1);
+                }
+                catch (InterruptedException e){
+                    return;
+                }
+            }
+        });
+        if(reload) reloader.start();
+        for(Thread worker:workers){
+            worker.join();
+        }
+        if(reload) reloader.join();
+        return fees.sum()/(double)seconds;
+    }
+}
+
+/*
+ Exit throughput against a payment gateway that takes 50 ms per call. Gate threads park and exit
+ cars for a few seconds, once paying on the gate thread before the spot is freed, once through the
+ batching PaymentProcessor. After the async run every payment must have settled exactly once with
+ no outstanding dues.
+ Run with `java -cp <classes> ExitThroughputBenchmark [gates] [seconds] [gateway latency ms]`.
+ */
+class ExitThroughputBenchmark{
+    public static void main(String[] args) throws Exception{
+        int gates=args.length>0 ? Integer.parseInt(args[0]) : 16;
+        int seconds=args.length>1 ? Integer.parseInt(args[1]) : 3;
+        long latencyMillis=args.length>2 ? Long.parseLong(args[2]) : 50;
+
+        java.io.PrintStream console=System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        LocalPaymentGateway syncGateway=new LocalPaymentGateway(latencyMillis,0);
+        // the old synchronous behaviour: the gate waits for the charge before it frees the spot
+        Exit syncExit=new Exit(){
+            @Override
+            void makePayment(Ticket ticket, PaymentMode mode){
+                double amount=Pricing.getFee(ticket.vehicle.getVehicleType(),ticket.entryTime,System.currentTimeMillis());
+                syncGateway.charge(Collections.singletonList(new PaymentRequest(ticket,mode,amount)));
+                ticket.spot.freeSpot();
+            }
+        };
+        long syncExits=run(syncExit,gates,seconds);
+
+        LocalPaymentGateway asyncGateway=new LocalPaymentGateway(latencyMillis,0);
+        PaymentProcessor processor=new PaymentProcessor(asyncGateway,10_000,100,4,latencyMillis*10,3,100);
+        long asyncExits=run(new Exit(processor),gates,seconds);
+        processor.shutdown();
+        System.setOut(console);
+
+        System.out.printf("%d gates, %d ms gateway%n",gates,latencyMillis);
+        System.out.printf("pay on the gate thread   %8.0f exits/s%n",syncExits/(double)seconds);
+        System.out.printf("batched async payments   %8.0f exits/s, %d charged, %d timeouts, %d vehicles with dues%n",
+                asyncExits/(double)seconds,asyncGateway.charged.size(),processor.timeouts.get(),processor.outstandingDues.size());
+        if(asyncGateway.charged.size()!=asyncExits || !processor.outstandingDues.isEmpty()){
+            throw new IllegalStateException("Async exits and settled payments do not match");
+        }
+    }
+
+    private static long run(Exit exit, int gates, int seconds) throws Exception{
+        List<Floor> floors=new ArrayList<>();
+        List<Spot> spots=new ArrayList<>();
+        for(int i=0;i<gates*2;i++){
+            spots.add(new Spot("S"+i,SpotStatus.Available,VehicleType.Car));
+        }
+        floors.add(new Floor("F1",spots));
+        ParkingLotService service=new ParkingLotService(new ParkingLot(floors),new Entry(),exit);
+
+        LongAdder exits=new LongAdder();
+        long until=System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads=new ArrayList<>();
+        for(int g=0;g<gates;g++){
+            int gate=g;
+            Thread thread=new Thread(()->{
+                for(int i=0;System.nanoTime()<until;i++){
+                    Ticket ticket=service.enterVehicle("G"+gate+"-"+i,VehicleType.Car);
+                    if(ticket==null) continue;
+                    service.exitVehicle(ticket,PaymentMode.CARD);
+                    exits.increment();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread:threads){
+            thread.join();
+        }
+        service.entry.release();
+        return exits.sum();
+    }
+}
 
 public class Main {
     public static void main(String[] args) {
@@ -315,9 +2167,17 @@ public class Main {
 
         ParkingLotService service=new ParkingLotService(lot,entry,exit);
 
+        DisplayBoard board=new DisplayBoard();
+        board.refresh(floors);
+
         Ticket t1=service.enterVehicle("UP78XX",VehicleType.Car);
         System.out.println(t1);
+        board.refresh(floors);
         service.exitVehicle(t1,PaymentMode.UPI);
+        board.refresh(floors);
+
+        service.enterVehicle("DL01AB",VehicleType.Truck);
+        service.exitByVehicleNumber("DL01AB",PaymentMode.CASH);
 
 
     }